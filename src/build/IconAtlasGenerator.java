@@ -0,0 +1,152 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 构建期图标精灵图生成器 (V1.0)
+ * <p>
+ * 由 exec-maven-plugin 在 process-resources 阶段以单文件源码方式运行：
+ * <pre>java IconAtlasGenerator.java &lt;icons 目录&gt; &lt;输出目录&gt;</pre>
+ * 把 icons 目录下的 Twemoji PNG 预先缩放到显示尺寸，按文件名顺序排成网格，输出：
+ * <ul>
+ *     <li>atlas@1x.png：每格 {@value #CELL} px；</li>
+ *     <li>atlas@2x.png：每格 {@value #CELL}×2 px，供 HiDPI 屏幕使用；</li>
+ *     <li>atlas.properties：网格参数 + 文件名 -> 格子序号。</li>
+ * </ul>
+ * 每格四周留 {@value #PAD} px 透明边，缩放采样时不会混进相邻图标。
+ * 图标没有变化、且索引里记录的布局（格子尺寸、边距、倍率、列数）与当前代码一致时跳过，不拖慢增量构建；
+ * 改了本文件的布局参数会自动重新生成，不会留下几何不符的旧图集。
+ * </p>
+ */
+public class IconAtlasGenerator {
+
+    private static final int CELL = 20;
+    private static final int PAD = 1;
+    private static final int[] SCALES = {1, 2};
+    private static final String INDEX_FILE = "atlas.properties";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("用法: java IconAtlasGenerator.java <icons 目录> <输出目录>");
+            System.exit(1);
+        }
+        Path iconDir = Paths.get(args[0]);
+        Path outDir = Paths.get(args[1]);
+
+        List<Path> icons;
+        try (Stream<Path> files = Files.list(iconDir)) {
+            icons = files.filter(p -> p.getFileName().toString().endsWith(".png")).sorted().toList();
+        }
+        if (icons.isEmpty()) {
+            System.out.println("[icon-atlas] 没有找到图标，跳过: " + iconDir);
+            return;
+        }
+
+        int columns = (int) Math.ceil(Math.sqrt(icons.size()));
+        String layout = "cell=" + CELL + ",pad=" + PAD + ",scales=" + Arrays.toString(SCALES) + ",columns=" + columns;
+        Path index = outDir.resolve(INDEX_FILE);
+        if (isUpToDate(iconDir, icons, outDir, index, layout)) {
+            System.out.println("[icon-atlas] 图标与布局均未变化，跳过");
+            return;
+        }
+
+        Files.createDirectories(outDir);
+        int rows = (icons.size() + columns - 1) / columns;
+        int stride = CELL + 2 * PAD;
+
+        BufferedImage[] atlases = new BufferedImage[SCALES.length];
+        for (int s = 0; s < SCALES.length; s++) {
+            int scale = SCALES[s];
+            atlases[s] = new BufferedImage(columns * stride * scale, rows * stride * scale, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        int skipped = 0;
+        try (Writer out = Files.newBufferedWriter(index, StandardCharsets.UTF_8)) {
+            out.write("# 由 IconAtlasGenerator 在构建时生成，请勿手改\n");
+            out.write("# layout: " + layout + "\n");
+            out.write("cell=" + CELL + "\n");
+            out.write("pad=" + PAD + "\n");
+            out.write("columns=" + columns + "\n");
+            int slot = 0;
+            for (Path icon : icons) {
+                BufferedImage source = ImageIO.read(icon.toFile());
+                if (source == null) {
+                    skipped++;
+                    continue;
+                }
+                int x = (slot % columns) * stride + PAD;
+                int y = (slot / columns) * stride + PAD;
+                for (int s = 0; s < SCALES.length; s++) {
+                    int scale = SCALES[s];
+                    Graphics2D g = atlases[s].createGraphics();
+                    g.drawImage(scaleDown(source, CELL * scale), x * scale, y * scale, null);
+                    g.dispose();
+                }
+                out.write(icon.getFileName() + "=" + slot + "\n");
+                slot++;
+            }
+        }
+        for (int s = 0; s < SCALES.length; s++) {
+            ImageIO.write(atlases[s], "png", outDir.resolve("atlas@" + SCALES[s] + "x.png").toFile());
+        }
+        System.out.printf("[icon-atlas] 已打包 %d 个图标（%d 列，跳过 %d 个无法解码的文件）-> %s%n",
+                icons.size() - skipped, columns, skipped, outDir);
+    }
+
+    /**
+     * 索引比所有图标都新、各倍率图集都在，且索引头部记录的布局与当前一致
+     */
+    private static boolean isUpToDate(Path iconDir, List<Path> icons, Path outDir, Path index, String layout)
+            throws IOException {
+        if (!Files.exists(index)) return false;
+        for (int scale : SCALES) {
+            if (!Files.exists(outDir.resolve("atlas@" + scale + "x.png"))) return false;
+        }
+        FileTime newest = Files.getLastModifiedTime(iconDir);
+        for (Path icon : icons) {
+            FileTime t = Files.getLastModifiedTime(icon);
+            if (t.compareTo(newest) > 0) newest = t;
+        }
+        if (Files.getLastModifiedTime(index).compareTo(newest) < 0) return false;
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            reader.readLine(); // 注释行
+            return ("# layout: " + layout).equals(reader.readLine());
+        }
+    }
+
+    /**
+     * 逐级减半再缩到目标尺寸，避免一步从 512 px 缩到 20 px 时出现锯齿
+     */
+    private static BufferedImage scaleDown(BufferedImage source, int size) {
+        BufferedImage current = source;
+        int w = source.getWidth();
+        int h = source.getHeight();
+        while (w > size || h > size) {
+            w = Math.max(size, w / 2);
+            h = Math.max(size, h / 2);
+            BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(current, 0, 0, w, h, null);
+            g.dispose();
+            current = next;
+        }
+        if (w == size && h == size) return current;
+        // 比目标还小的图标居中放置，不放大
+        BufferedImage padded = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = padded.createGraphics();
+        g.drawImage(current, (size - w) / 2, (size - h) / 2, null);
+        g.dispose();
+        return padded;
+    }
+}
@@ -2,6 +2,7 @@ package cn.bit.budget.controller;
 
 import cn.bit.budget.model.Bill;
 import cn.bit.budget.util.CategoryManager;
+import cn.bit.budget.util.ObservableTaxonomy;
 import com.jfoenix.controls.JFXButton;
 import com.jfoenix.controls.JFXDialog;
 import com.jfoenix.controls.JFXDialogLayout;
@@ -63,11 +64,8 @@ public class AddBillController {
         // 4. 监听一级分类选择事件 (级联逻辑)
         parentCategoryBox.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> {
             if (newVal != null) {
-                // 根据选中的一级分类，刷新二级分类列表
-                childCategoryBox.getItems().clear();
-                // 添加"无"选项作为第一项
-                childCategoryBox.getItems().add("无");
-                childCategoryBox.getItems().addAll(CategoryManager.getChildCategories(newVal));
+                // 根据选中的一级分类切换二级分类列表（"无"固定为第一项，列表随分类变更原地更新）
+                childCategoryBox.setItems(ObservableTaxonomy.children(newVal, "无"));
                 // 默认选中"无"
                 childCategoryBox.getSelectionModel().selectFirst();
             }
@@ -122,15 +120,9 @@ public class AddBillController {
      */
     private void updateParentCategoryByType() {
         String currentSelection = parentCategoryBox.getValue();
-        parentCategoryBox.getItems().clear();
-        
-        if (rbIncome.isSelected()) {
-            // 收入类型：只显示"收入"分类
-            parentCategoryBox.getItems().addAll(CategoryManager.getIncomeCategories());
-        } else {
-            // 支出类型：显示除"收入"外的所有分类
-            parentCategoryBox.getItems().addAll(CategoryManager.getExpenseCategories());
-        }
+
+        // 收入类型只显示收入分类，支出类型只显示支出分类；列表随分类变更原地更新
+        parentCategoryBox.setItems(ObservableTaxonomy.parents(rbIncome.isSelected() ? "收入" : "支出"));
         
         // 尝试保持之前的选择，如果不在新列表中则选择第一个
         if (currentSelection != null && parentCategoryBox.getItems().contains(currentSelection)) {
@@ -200,7 +192,7 @@ public class AddBillController {
                 // 🔥 只有当类型匹配当前收支类型时，才添加到下拉框
                 String currentBillType = rbIncome.isSelected() ? "收入" : "支出";
                 if (categoryType.equals(currentBillType)) {
-                    parentCategoryBox.getItems().add(newCategoryName);
+                    // 下拉框列表已由变更事件自动追加
                     parentCategoryBox.getSelectionModel().select(newCategoryName);
                 }
                 
@@ -282,8 +274,7 @@ public class AddBillController {
                         // 1. 存入管理器（会自动保存）
                         CategoryManager.addCustomChildCategory(currentParent, cleanName);
 
-                        // 2. 刷新当前下拉框
-                        childCategoryBox.getItems().add(cleanName);
+                        // 2. 下拉框列表已由变更事件自动追加，直接选中
                         childCategoryBox.getSelectionModel().select(cleanName);
                     }
                 }
@@ -2,9 +2,19 @@ package cn.bit.budget.controller;
 
 import cn.bit.budget.dao.DataStore;
 import cn.bit.budget.model.Bill;
+import cn.bit.budget.util.AIBatchScheduler;
+import cn.bit.budget.util.AIMetrics;
 import cn.bit.budget.util.AICategorizer;
 import cn.bit.budget.util.BillImportUtil;
+import cn.bit.budget.util.BillVectorIndex;
+import cn.bit.budget.util.CategorizationCache;
+import cn.bit.budget.util.CircuitBreakerCategorizer;
 import cn.bit.budget.util.CategoryManager;
+import cn.bit.budget.util.EmojiIconCache;
+import cn.bit.budget.util.ImportReport;
+import cn.bit.budget.util.KeywordRuleEngine;
+import cn.bit.budget.util.LocalBillClassifier;
+import cn.bit.budget.util.ObservableTaxonomy;
 import com.jfoenix.controls.*;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -128,7 +138,7 @@ public class HelloController implements Initializable {
         });
 
         // 初始化二级分类
-        filterSubCategoryBox.getItems().add("全部");
+        filterSubCategoryBox.setItems(ObservableTaxonomy.children(null, "全部"));
         filterSubCategoryBox.setValue("全部");
 
         // ============================================================
@@ -201,31 +211,16 @@ public class HelloController implements Initializable {
                         displayText = category;
                     }
 
-                    // 1. 获取图片路径
-                    String iconName = getIconName(emojiToUse);
+                    // 1. 图标走共享精灵图：整张图集只解码一次，每格靠 viewport 截取，找不到则留空
+                    EmojiIconCache.apply(imageView, emojiToUse);
 
-                    // 2. 使用 JavaFX 原生 Image 加载 (带缓存，性能极高)
-                    try {
-                        // 注意：路径必须保证正确，getResourceAsStream 是读取 jar/classes 内部资源的最佳方式
-                        java.io.InputStream is = getClass().getResourceAsStream("/cn/bit/budget/icons/" + iconName);
-                        if (is != null) {
-                            imageView.setImage(new javafx.scene.image.Image(is));
-                        } else {
-                            // 如果找不到图片，可以在这里加载一个默认的“问号”图，或者留空
-                            // System.out.println("找不到图标: " + iconName);
-                            imageView.setImage(null);
-                        }
-                    } catch (Exception e) {
-                        imageView.setImage(null);
-                    }
-
-                    // 3. 设置文字和图标的排版
+                    // 2. 设置文字和图标的排版
                     setText(displayText);
                     setGraphic(imageView);
                     setContentDisplay(ContentDisplay.LEFT);
                     setGraphicTextGap(8);
 
-                    // 4. 给文字加点样式
+                    // 3. 给文字加点样式
                     setStyle("-fx-text-fill: #606266; -fx-font-weight: bold; -fx-alignment: CENTER-LEFT;");
                 }
             }
@@ -239,27 +234,17 @@ public class HelloController implements Initializable {
         // 🔥 新增：设置双击编辑功能
         setupDoubleClickEdit();
 
+        // 后台预加载图标精灵图（或分类图标），首屏滚动时不再现场解码
+        EmojiIconCache.preloadTaxonomy();
+
         // 4. 加载数据
         allBills = DataStore.loadBills();
+        retrainLocalClassifier();
 
         // 5. 默认显示
         onThisMonthClick(null);
     }
 
-    // 辅助方法：把 Emoji 转换成文件名 (从之前的逻辑提取出来的)
-    private String getIconName(String emoji) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < emoji.length(); ) {
-            int codePoint = emoji.codePointAt(i);
-            if (codePoint != 0xFE0F) {
-                if (sb.length() > 0) sb.append("-");
-                sb.append(Integer.toHexString(codePoint).toLowerCase());
-            }
-            i += Character.charCount(codePoint);
-        }
-        return sb.toString() + ".png";
-    }
-
     /**
      * 设置按钮点击事件处理方法
      * 当用户点击设置按钮时，显示系统设置对话框
@@ -285,6 +270,8 @@ public class HelloController implements Initializable {
 
             // 加载已有的个性化信息到 ListView
             refreshInstructionList(listView);
+            setupRuleEditor(settingsRoot);
+            setupMetricsPanel(settingsRoot);
 
             // 3. 绑定添加逻辑
             btnAdd.setOnAction(e -> {
@@ -350,6 +337,83 @@ public class HelloController implements Initializable {
             listView.getItems().add(cell);
         }
     }
+    /**
+     * 设置页：关键词规则的增删
+     */
+    private void setupRuleEditor(VBox settingsRoot) {
+        JFXListView<HBox> ruleListView = (JFXListView<HBox>) settingsRoot.lookup("#ruleListView");
+        TextField keywordField = (TextField) settingsRoot.lookup("#ruleKeywordField");
+        ComboBox<String> parentBox = (ComboBox<String>) settingsRoot.lookup("#ruleParentBox");
+        ComboBox<String> subBox = (ComboBox<String>) settingsRoot.lookup("#ruleSubBox");
+        Button btnAddRule = (Button) settingsRoot.lookup("#btnAddRule");
+
+        parentBox.setItems(ObservableTaxonomy.parents(null));
+        parentBox.valueProperty().addListener((obs, oldVal, newVal) -> {
+            subBox.setItems(ObservableTaxonomy.children(newVal, "无"));
+            subBox.setValue("无");
+        });
+
+        refreshRuleList(ruleListView);
+
+        btnAddRule.setOnAction(e -> {
+            String keyword = keywordField.getText();
+            String parent = parentBox.getValue();
+            if (keyword == null || keyword.trim().isEmpty() || parent == null) {
+                showTopRightError("请填写关键词并选择一级分类");
+                return;
+            }
+            String sub = subBox.getValue() == null || "无".equals(subBox.getValue()) ? null : subBox.getValue();
+            // 规则只作用于该分类所属的收支类型
+            String type = CategoryManager.getIncomeCategories().contains(parent) ? "收入" : "支出";
+            KeywordRuleEngine.addRule(keyword, type, parent, sub, 0);
+            keywordField.clear();
+            refreshRuleList(ruleListView);
+        });
+    }
+
+    /**
+     * 设置页：AI 运行指标
+     */
+    private void setupMetricsPanel(VBox settingsRoot) {
+        TextArea metricsArea = (TextArea) settingsRoot.lookup("#aiMetricsArea");
+        Button btnRefresh = (Button) settingsRoot.lookup("#btnRefreshMetrics");
+        Button btnReset = (Button) settingsRoot.lookup("#btnResetMetrics");
+
+        metricsArea.setText(AIMetrics.toSummary());
+        btnRefresh.setOnAction(e -> metricsArea.setText(AIMetrics.toSummary()));
+        btnReset.setOnAction(e -> {
+            AIMetrics.reset();
+            metricsArea.setText(AIMetrics.toSummary());
+        });
+    }
+
+    private void refreshRuleList(JFXListView<HBox> ruleListView) {
+        ruleListView.getItems().clear();
+        for (KeywordRuleEngine.Rule rule : KeywordRuleEngine.getRules()) {
+            HBox cell = new HBox();
+            cell.setAlignment(Pos.CENTER_LEFT);
+            cell.setSpacing(10);
+
+            Label text = new Label("“" + rule.keyword() + "” → " + rule.toSuggestion()
+                    + (rule.type() == null ? "" : "（" + rule.type() + "）"));
+            text.setMaxWidth(300);
+            text.setWrapText(true);
+
+            Region spacer = new Region();
+            HBox.setHgrow(spacer, Priority.ALWAYS);
+
+            JFXButton btnDel = new JFXButton("✕");
+            btnDel.setStyle("-fx-text-fill: #f56c6c; -fx-font-weight: bold; -fx-cursor: hand;");
+            btnDel.setOnAction(e -> {
+                KeywordRuleEngine.removeRule(rule.id());
+                refreshRuleList(ruleListView);
+            });
+
+            cell.getChildren().addAll(text, spacer, btnDel);
+            ruleListView.getItems().add(cell);
+        }
+    }
+
     /**
      * 核心方法：点击“查询/刷新”
      * 根据筛选条件过滤 allBills，并更新 UI
@@ -421,22 +485,11 @@ public class HelloController implements Initializable {
      */
     private void updateCategoryFilterByType() {
         String currentSelection = filterCategoryBox.getValue();
-        filterCategoryBox.getItems().clear();
-
-        // 始终添加"全部分类"选项
-        filterCategoryBox.getItems().add("全部分类");
 
+        // 始终带"全部分类"表头；列表随分类增删改原地更新，这里只需按收支类型切换
         String selectedType = typeFilterBox.getValue();
-        if ("收入".equals(selectedType)) {
-            // 收入类型：只显示"收入"分类
-            filterCategoryBox.getItems().addAll(CategoryManager.getIncomeCategories());
-        } else if ("支出".equals(selectedType)) {
-            // 支出类型：显示除"收入"外的所有分类
-            filterCategoryBox.getItems().addAll(CategoryManager.getExpenseCategories());
-        } else {
-            // 全部类型：显示所有分类
-            filterCategoryBox.getItems().addAll(CategoryManager.getParentCategories());
-        }
+        String type = "收入".equals(selectedType) || "支出".equals(selectedType) ? selectedType : null;
+        filterCategoryBox.setItems(ObservableTaxonomy.parents(type, "全部分类"));
 
         // 尝试保持之前的选择，如果不在新列表中则选择"全部分类"
         if (currentSelection != null && filterCategoryBox.getItems().contains(currentSelection)) {
@@ -451,17 +504,11 @@ public class HelloController implements Initializable {
      */
     private void updateSubCategoryFilter() {
         String currentSelection = filterSubCategoryBox.getValue();
-        filterSubCategoryBox.getItems().clear();
-
-        // 始终添加"全部"选项
-        filterSubCategoryBox.getItems().add("全部");
 
+        // 始终带"全部"表头；未选一级分类时只有表头
         String selectedCategory = filterCategoryBox.getValue();
-        if (selectedCategory != null && !"全部分类".equals(selectedCategory)) {
-            // 获取该一级分类下的所有二级分类
-            List<String> subCategories = CategoryManager.getChildCategories(selectedCategory);
-            filterSubCategoryBox.getItems().addAll(subCategories);
-        }
+        String parent = "全部分类".equals(selectedCategory) ? null : selectedCategory;
+        filterSubCategoryBox.setItems(ObservableTaxonomy.children(parent, "全部"));
 
         // 尝试保持之前的选择，如果不在新列表中则选择"全部"
         if (currentSelection != null && filterSubCategoryBox.getItems().contains(currentSelection)) {
@@ -559,10 +606,8 @@ public class HelloController implements Initializable {
 
         showInputDialog("新增二级分类 (" + currentParent + ")", "请输入新的二级分类名称：", (name) -> {
             if (!name.trim().isEmpty()) {
+                // 下拉框列表由变更事件自动追加
                 CategoryManager.addCustomChildCategory(currentParent, name);
-                if (!filterSubCategoryBox.getItems().contains(name)) {
-                    filterSubCategoryBox.getItems().add(name);
-                }
                 filterSubCategoryBox.setValue(name);
                 showTopRightSuccess(name, "已添加二级分类：" + name);
             }
@@ -619,6 +664,142 @@ public class HelloController implements Initializable {
         showDeleteSubCategoryConfirmDialog(currentParent, selectedSubCategory);
     }
 
+    /**
+     * 重命名 / 合并自定义一级分类：输入新名称即重命名，输入已有的同类型分类名则合并
+     */
+    @FXML
+    public void onEditFilterCategory(ActionEvent event) {
+        String selectedCategory = filterCategoryBox.getValue();
+
+        if (selectedCategory == null || "全部分类".equals(selectedCategory)) {
+            showTopRightError("请先选择要调整的分类");
+            return;
+        }
+        if (!CategoryManager.isCustomCategory(selectedCategory)) {
+            showTopRightError("默认分类不能改名或合并，只能调整自定义分类");
+            return;
+        }
+
+        showInputDialog("重命名 / 合并 (" + selectedCategory + ")", "输入新名称；输入已有的同类型分类名则合并到该分类：",
+                (name) -> {
+                    String target = name.trim();
+                    if (target.isEmpty() || target.equals(selectedCategory)) return;
+                    if (!CategoryManager.getParentCategories().contains(target)) {
+                        applyParentCategoryChange(selectedCategory, target,
+                                CategoryManager.renameParentCategory(selectedCategory, target), "重命名为");
+                    } else if (CategoryManager.getIncomeCategories().contains(target)
+                            != CategoryManager.getIncomeCategories().contains(selectedCategory)) {
+                        showTopRightError("只能合并到同为收入或同为支出的分类");
+                    } else {
+                        showMergeConfirmDialog(String.format(
+                                "确定把 \"%s\" 合并到 \"%s\" 吗？\n\n相关账单和二级分类都会并入 \"%s\"，原分类将被删除。",
+                                selectedCategory, target, target),
+                                () -> applyParentCategoryChange(selectedCategory, target,
+                                        CategoryManager.mergeParentCategory(selectedCategory, target), "合并到"));
+                    }
+                });
+    }
+
+    /**
+     * 重命名 / 合并自定义二级分类（限同一一级分类内）
+     */
+    @FXML
+    public void onEditFilterSubCategory(ActionEvent event) {
+        String currentParent = filterCategoryBox.getValue();
+        String selectedSubCategory = filterSubCategoryBox.getValue();
+
+        if (currentParent == null || "全部分类".equals(currentParent)) {
+            showTopRightError("请先选择一级分类");
+            return;
+        }
+        if (selectedSubCategory == null || "全部".equals(selectedSubCategory)) {
+            showTopRightError("请先选择要调整的二级分类");
+            return;
+        }
+        if (!CategoryManager.isCustomChildCategory(currentParent, selectedSubCategory)) {
+            showTopRightError("默认二级分类不能改名或合并，只能调整自定义分类");
+            return;
+        }
+
+        showInputDialog("重命名 / 合并 (" + currentParent + " - " + selectedSubCategory + ")",
+                "输入新名称；输入同一分类下已有的二级分类名则合并：", (name) -> {
+                    String target = name.trim();
+                    if (target.isEmpty() || target.equals(selectedSubCategory)) return;
+                    if (!CategoryManager.hasChildCategory(currentParent, target)) {
+                        applySubCategoryChange(currentParent, selectedSubCategory, target,
+                                CategoryManager.renameChildCategory(currentParent, selectedSubCategory, target), "重命名为");
+                    } else {
+                        showMergeConfirmDialog(String.format(
+                                "确定把 \"%s - %s\" 合并到 \"%s - %s\" 吗？\n\n相关账单会改挂到 \"%s\"，原二级分类将被删除。",
+                                currentParent, selectedSubCategory, currentParent, target, target),
+                                () -> applySubCategoryChange(currentParent, selectedSubCategory, target,
+                                        CategoryManager.mergeChildCategory(currentParent, selectedSubCategory, target), "合并到"));
+                    }
+                });
+    }
+
+    /**
+     * 显示合并确认对话框
+     */
+    private void showMergeConfirmDialog(String message, Runnable onConfirm) {
+        JFXDialogLayout content = new JFXDialogLayout();
+        content.setHeading(new Text("确认合并"));
+
+        Text bodyText = new Text(message);
+        bodyText.setStyle("-fx-font-size: 14px; -fx-fill: #606266;");
+        content.setBody(bodyText);
+
+        JFXDialog dialog = new JFXDialog(rootStackPane, content, JFXDialog.DialogTransition.CENTER);
+
+        JFXButton btnCancel = new JFXButton("返回");
+        btnCancel.setStyle("-fx-text-fill: #909399; -fx-font-size: 14px;");
+        btnCancel.setOnAction(e -> dialog.close());
+
+        JFXButton btnConfirm = new JFXButton("确认合并");
+        btnConfirm.setStyle("-fx-text-fill: #409eff; -fx-font-weight: bold; -fx-font-size: 14px;");
+        btnConfirm.setOnAction(e -> {
+            dialog.close();
+            onConfirm.run();
+        });
+
+        content.setActions(btnCancel, btnConfirm);
+        dialog.show();
+    }
+
+    /**
+     * 一级分类改名 / 合并成功后，直接改内存里的账单并刷新界面，不再整库重新加载
+     */
+    private void applyParentCategoryChange(String source, String target, int billCount, String action) {
+        if (billCount < 0) {
+            showWarningAlert("操作失败", "无法调整该分类，数据未做任何修改");
+            return;
+        }
+        for (Bill b : allBills) {
+            if (source.equals(b.getCategory())) b.setCategory(target);
+        }
+        updateCategoryFilterByType();
+        filterCategoryBox.setValue(target);
+        retrainLocalClassifier();
+        onSearchClick(null);
+        showGeneralSuccess(String.format("已将分类 \"%s\" %s \"%s\"，共调整 %d 条账单", source, action, target, billCount));
+    }
+
+    private void applySubCategoryChange(String parent, String source, String target, int billCount, String action) {
+        if (billCount < 0) {
+            showWarningAlert("操作失败", "无法调整该分类，数据未做任何修改");
+            return;
+        }
+        for (Bill b : allBills) {
+            if (parent.equals(b.getCategory()) && source.equals(b.getSubCategory())) b.setSubCategory(target);
+        }
+        updateSubCategoryFilter();
+        filterSubCategoryBox.setValue(target);
+        retrainLocalClassifier();
+        onSearchClick(null);
+        showGeneralSuccess(String.format("已将分类 \"%s - %s\" %s \"%s\"，共调整 %d 条账单",
+                parent, source, action, target, billCount));
+    }
+
     /**
      * 显示删除分类确认对话框
      */
@@ -659,12 +840,12 @@ public class HelloController implements Initializable {
      * 执行删除一级分类操作
      */
     private void performDeleteCategory(String categoryName) {
-        // 删除分类
-        boolean deleted = CategoryManager.deleteParentCategory(categoryName);
+        // 先删账单再删分类：分类删除会级联删掉账单，之后就统计不到条数了
+        boolean deletable = CategoryManager.isCustomCategory(categoryName);
+        int deletedBillCount = deletable ? DataStore.deleteBillsByCategory(categoryName) : 0;
+        boolean deleted = deletable && CategoryManager.deleteParentCategory(categoryName);
 
         if (deleted) {
-            // 删除相关账单
-            int deletedBillCount = DataStore.deleteBillsByCategory(categoryName);
 
             // 🔥 修复：重新加载分类列表，而不是手动移除
             updateCategoryFilterByType();
@@ -672,6 +853,7 @@ public class HelloController implements Initializable {
 
             // 重新加载数据
             allBills = DataStore.loadBills();
+            retrainLocalClassifier();
             onSearchClick(null);
 
             // 显示成功提示
@@ -724,12 +906,12 @@ public class HelloController implements Initializable {
      * 执行删除二级分类操作
      */
     private void performDeleteSubCategory(String parentCategory, String subCategory) {
-        // 删除分类
-        boolean deleted = CategoryManager.deleteChildCategory(parentCategory, subCategory);
+        // 先删账单再删分类，理由同上
+        boolean deletable = CategoryManager.isCustomChildCategory(parentCategory, subCategory);
+        int deletedBillCount = deletable ? DataStore.deleteBillsBySubCategory(parentCategory, subCategory) : 0;
+        boolean deleted = deletable && CategoryManager.deleteChildCategory(parentCategory, subCategory);
 
         if (deleted) {
-            // 删除相关账单
-            int deletedBillCount = DataStore.deleteBillsBySubCategory(parentCategory, subCategory);
 
             // 🔥 修复：重新加载二级分类列表，而不是手动移除
             updateSubCategoryFilter();
@@ -737,6 +919,7 @@ public class HelloController implements Initializable {
 
             // 重新加载数据
             allBills = DataStore.loadBills();
+            retrainLocalClassifier();
             onSearchClick(null);
 
             // 显示成功提示
@@ -925,6 +1108,8 @@ public class HelloController implements Initializable {
             if (newBill != null) {
                 // 1. 加到总数据源
                 allBills.add(newBill);
+                LocalBillClassifier.learn(newBill);
+                BillVectorIndex.add(newBill);
 
                 // 【新增】重新排序：日期倒序 -> 创建时间倒序
                 allBills.sort((b1, b2) -> {
@@ -971,6 +1156,10 @@ public class HelloController implements Initializable {
                         break;
                     }
                 }
+                LocalBillClassifier.unlearn(billToEdit);
+                LocalBillClassifier.learn(updatedBill);
+                BillVectorIndex.remove(billToEdit);
+                BillVectorIndex.add(updatedBill);
 
                 // 2. 重新排序
                 allBills.sort((b1, b2) -> {
@@ -1055,6 +1244,8 @@ public class HelloController implements Initializable {
      */
     private void performDeleteBills(ObservableList<Bill> selectedItems, int selectedCount) {
         // 1. 从总数据源中移除
+        LocalBillClassifier.unlearnAll(new ArrayList<>(selectedItems));
+        BillVectorIndex.removeAll(new ArrayList<>(selectedItems));
         allBills.removeAll(selectedItems);
 
         // 2. 保存全量数据
@@ -1086,18 +1277,14 @@ public class HelloController implements Initializable {
         File file = fileChooser.showOpenDialog(billTable.getScene().getWindow());
         if (file == null) return;
 
-        // 2. 解析文件
-        List<Bill> rawBills = BillImportUtil.parse(file);
-        if (rawBills.isEmpty()) return;
-
-        // 3. 启动“分区呈现”的 Agent 审查流程
-        showAgentReviewFlow(rawBills);
+        // 2. 直接打开审查弹窗，文件在后台解析，边解析边分类
+        showAgentReviewFlow(file);
     }
 
     /**
      * 分区呈现进度并处理 Agent 逻辑
      */
-    private void showAgentReviewFlow(List<Bill> rawBills) {
+    private void showAgentReviewFlow(File file) {
         try {
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/cn/bit/budget/budgetmanager/import-review-view.fxml"));
             VBox reviewRoot = loader.load();
@@ -1107,6 +1294,7 @@ public class HelloController implements Initializable {
             Label statusLabel = (Label) reviewRoot.lookup("#statusLabel");
             Label progressText = (Label) reviewRoot.lookup("#progressText");
             TableView<ReviewItem> table = (TableView<ReviewItem>) reviewRoot.lookup("#reviewTable");
+            Label breakerLabel = (Label) reviewRoot.lookup("#breakerLabel");
 
             // 配置表格列 (包括 ComboBox 修正逻辑)
             setupReviewTableColumns(table);
@@ -1125,19 +1313,89 @@ public class HelloController implements Initializable {
             JFXDialog dialog = new JFXDialog(rootStackPane, layout, JFXDialog.DialogTransition.CENTER);
             dialog.setOverlayClose(false);
 
+            JFXButton btnCancel = new JFXButton("取消导入");
+            btnCancel.setStyle("-fx-text-fill: #909399; -fx-font-size: 14px;");
+
             JFXButton btnFinish = new JFXButton("完成导入");
             btnFinish.setDisable(true); // 分析完之前不能点
             btnFinish.setStyle("-fx-background-color: #409eff; -fx-text-fill: white;");
-            layout.setActions(btnFinish);
+            layout.setActions(btnCancel, btnFinish);
             dialog.show();
 
-            // 5. 分批次执行 AI 分析 (实现进度条平滑移动)
-            runBatchCategorization(rawBills, table, progressBar, progressText, statusLabel, btnFinish);
+            // 熔断状态：AI 服务不可用时提示用户，本次导入会改用本地分类
+            CircuitBreakerCategorizer breaker = AICategorizer.getCircuitBreaker();
+            if (breaker != null) {
+                java.util.function.Consumer<CircuitBreakerCategorizer.State> breakerListener =
+                        state -> javafx.application.Platform.runLater(() -> updateBreakerLabel(breakerLabel, breaker));
+                updateBreakerLabel(breakerLabel, breaker);
+                breaker.addStateListener(breakerListener);
+                dialog.setOnDialogClosed(e -> breaker.removeStateListener(breakerListener));
+            }
+
+            // 5. 后台解析 + 分批 AI 分析：解析出一批就送一批，表格边解析边出结果
+            ImportReport report = new ImportReport(file.getName());
+            ImportReviewSession session = new ImportReviewSession(table, progressBar, progressText, statusLabel, btnFinish, report);
+            javafx.concurrent.Task<Integer> parseTask = new javafx.concurrent.Task<>() {
+                @Override
+                protected Integer call() {
+                    javafx.concurrent.Task<Integer> task = this;
+                    return BillImportUtil.parse(file, new BillImportUtil.ImportListener() {
+                        @Override
+                        public void onBills(List<Bill> batch) {
+                            // 查缓存要读写数据库，放在解析线程上做，FX 线程只拿结果
+                            Map<String, AICategorizer.CategoryResult> cached = session.lookupCached(batch);
+                            javafx.application.Platform.runLater(() -> session.accept(batch, cached));
+                        }
+
+                        @Override
+                        public void onProgress(long done, long total) {
+                            updateProgress(done, total);
+                        }
 
-            // 6. 保存逻辑
+                        @Override
+                        public boolean isCancelled() {
+                            return task.isCancelled();
+                        }
+                    }, report);
+                }
+            };
+            parseTask.progressProperty().addListener((obs, oldVal, newVal) -> session.onParseProgress(newVal.doubleValue()));
+            parseTask.setOnSucceeded(e -> {
+                // runLater 排队，确保在所有 onBills 批次之后执行
+                javafx.application.Platform.runLater(() -> {
+                    if (session.isEmpty()) {
+                        dialog.close();
+                        showTopRightError("未能从文件中识别出账单");
+                        if (report.getRejected() > 0) showImportReport(report);
+                    } else {
+                        session.onParseFinished();
+                    }
+                });
+            });
+            parseTask.setOnFailed(e -> {
+                parseTask.getException().printStackTrace();
+                session.cancel();
+                dialog.close();
+                showTopRightError("账单解析失败：" + parseTask.getException().getMessage());
+            });
+
+            Thread parseThread = new Thread(parseTask, "bill-import-parser");
+            parseThread.setDaemon(true);
+            parseThread.start();
+
+            // 6. 取消：停止解析，丢弃尚未返回的 AI 结果
+            btnCancel.setOnAction(e -> {
+                parseTask.cancel();
+                session.cancel();
+                dialog.close();
+            });
+
+            // 7. 保存逻辑
             btnFinish.setOnAction(e -> {
-                handleFinalImport(rawBills, table.getItems());
+                report.endPhase(ImportReport.Phase.REVIEW);
+                handleFinalImport(session.getRawBills(), session.getGroupedBills(), table.getItems(), report);
                 dialog.close();
+                showImportReport(report);
             });
 
         } catch (Exception e) {
@@ -1145,86 +1403,290 @@ public class HelloController implements Initializable {
         }
     }
 
-    // java/cn/bit/budget/controller/HelloController.java
+    private void updateBreakerLabel(Label label, CircuitBreakerCategorizer breaker) {
+        boolean open = breaker.getState() != CircuitBreakerCategorizer.State.CLOSED;
+        label.setText((open ? "\u26A0 " : "") + breaker.describe());
+        label.setVisible(open);
+        label.setManaged(open);
+    }
 
     /**
-     * 核心分批逻辑 (V4.0 - 异常对位处理版)
+     * 一次导入的审查会话 (V5.1 - 流式版)
+     * 解析线程每推来一批账单，就按 [描述 + 收支类型] 增量分组，规则/缓存/本地模型/相似账单都拿不准的分组交给
+     * {@link AIBatchScheduler} 限流发送；
      * 即使 AI 分析失败，也将条目添加至列表并标黄提示，确保不漏账。
+     * 除 {@link #lookupCached(List)} 在解析线程调用外，所有方法都只在 FX 线程调用。
      */
-    private void runBatchCategorization(List<Bill> rawBills, TableView<ReviewItem> table,
-                                        ProgressBar pb, Label pText, Label sLabel, Button btn) {
-        // 1. 物理分组逻辑保持不变
-        Map<String, List<Bill>> groupedBills = rawBills.stream()
-                .collect(Collectors.groupingBy(b -> getSafeDesc(b.getRemark()) + "|" + b.getType()));
-
-        List<String> allUniqueKeys = new ArrayList<>(groupedBills.keySet());
-        int totalItems = allUniqueKeys.size();
-
-        ObservableList<ReviewItem> reviewData = FXCollections.observableArrayList();
-        table.setItems(reviewData);
-
-        // 2. 并行控制
-        int batchSize = 5; // 建议在 10 左右，平衡并发量和请求成功率
-        java.util.concurrent.atomic.AtomicInteger processedCount = new java.util.concurrent.atomic.AtomicInteger(0);
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-
-        for (int i = 0; i < totalItems; i += batchSize) {
-            final int start = i;
-            final int end = Math.min(i + batchSize, totalItems);
-            List<String> batchKeys = allUniqueKeys.subList(start, end);
-
-            // 构造发送给 AI 的数据包
-            List<Map<String, Object>> batchItems = new ArrayList<>();
-            for (String key : batchKeys) {
+    private class ImportReviewSession {
+
+        private final List<Bill> rawBills = new ArrayList<>();
+        private final Map<String, List<Bill>> groupedBills = new LinkedHashMap<>();
+        private final Map<String, String[]> aiKeyInfo = new java.util.concurrent.ConcurrentHashMap<>();
+        // 分类体系与个性化指令在会话开始时取快照，整个导入期间不变
+        private final AIBatchScheduler scheduler = new AIBatchScheduler(
+                CategoryManager.getExpenseCategoryTree(),
+                CategoryManager.getIncomeCategoryTree(),
+                CategoryManager.getPersonalizations(),
+                new AIBatchScheduler.Listener() {
+                    @Override
+                    public void onBatchDone(List<String> ids, Map<String, AICategorizer.CategoryResult> results, Throwable error) {
+                        onAiBatchDone(ids, results, error);
+                    }
+
+                    @Override
+                    public void onEntry(String id, AICategorizer.CategoryResult result) {
+                        onAiEntry(id, result);
+                    }
+                });
+        // 已经上表的分组（流式条目与批次结束回调可能重复送达同一个 key）
+        private final Set<String> shownKeys = new HashSet<>();
+        private final ObservableList<ReviewItem> reviewData = FXCollections.observableArrayList();
+
+        private final ProgressBar pb;
+        private final Label pText;
+        private final Label sLabel;
+        private final Button btn;
+        private final ImportReport report;
+        // 分类体系在一次导入期间视为不变，会话开始时算一次
+        private final String taxonomyHash = CategorizationCache.taxonomyHash();
+
+        private int processedCount = 0;
+        private boolean parseFinished = false;
+        // FX 线程写，调度器回调线程读（决定是否写缓存）
+        private volatile boolean cancelled = false;
+        private boolean categorizeStarted = false;
+        // 迟到的批次回调（其 key 已全部流式上表）还会再调 checkFinished，收尾只做一次
+        private boolean finished = false;
+        // 解析线程独占：已查过缓存的分组
+        private final Set<String> lookedUpKeys = new HashSet<>();
+
+        ImportReviewSession(TableView<ReviewItem> table, ProgressBar pb, Label pText, Label sLabel, Button btn,
+                            ImportReport report) {
+            this.pb = pb;
+            this.pText = pText;
+            this.sLabel = sLabel;
+            this.btn = btn;
+            this.report = report;
+            table.setItems(reviewData);
+        }
+
+        /**
+         * 解析线程调用：为本批新出现、且关键词规则不命中的分组查缓存（第二层）。
+         * 每组以首次出现的账单为样本，与 accept 的分组方式一致
+         */
+        Map<String, AICategorizer.CategoryResult> lookupCached(List<Bill> batch) {
+            if (cancelled) return Map.of();
+            Map<String, String[]> keys = new LinkedHashMap<>();
+            for (Bill b : batch) {
+                String key = getSafeDesc(b.getRemark()) + "|" + b.getType();
+                if (!lookedUpKeys.add(key)) continue;
+                if (KeywordRuleEngine.match(b.getRemark(), b.getType()) != null) continue;
+                keys.put(key, new String[]{getSafeDesc(b.getRemark()), b.getType()});
+            }
+            return CategorizationCache.lookup(keys, taxonomyHash);
+        }
+
+        /**
+         * 接收解析线程推来的一批账单及其缓存命中结果
+         */
+        void accept(List<Bill> batch, Map<String, AICategorizer.CategoryResult> cached) {
+            if (cancelled) return;
+            rawBills.addAll(batch);
+            List<String> newKeys = new ArrayList<>();
+            for (Bill b : batch) {
+                String key = getSafeDesc(b.getRemark()) + "|" + b.getType();
+                List<Bill> group = groupedBills.get(key);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groupedBills.put(key, group);
+                    newKeys.add(key);
+                }
+                group.add(b);
+            }
+            // 第一层：关键词规则，一次扫描即出结果
+            List<String> unmatched = new ArrayList<>();
+            for (String key : newKeys) {
                 Bill sample = groupedBills.get(key).get(0);
-                Map<String, Object> aiItem = prepareBillForAi(sample);
-                aiItem.put("unique_id", key);
-                batchItems.add(aiItem);
+                KeywordRuleEngine.Rule rule = KeywordRuleEngine.match(sample.getRemark(), sample.getType());
+                if (rule != null) {
+                    reviewData.add(new ReviewItem(sample, ruleResult(rule), key, isAutoCreateCategory, false));
+                    processedCount++;
+                } else {
+                    unmatched.add(key);
+                }
+            }
+            // 第二层：缓存（已在解析线程查好）；第三层：本地模型或相似历史账单足够自信时直接采用。只有都没把握的才排队等 AI
+            for (String key : unmatched) {
+                Bill sample = groupedBills.get(key).get(0);
+                AICategorizer.CategoryResult hit = cached.get(key);
+                if (hit == null) {
+                    hit = localResult(LocalBillClassifier.predictConfident(sample.getRemark(), sample.getType()));
+                }
+                if (hit == null) {
+                    hit = vectorResult(BillVectorIndex.suggestConfident(sample.getRemark(), sample.getType()));
+                }
+                if (hit != null) {
+                    reviewData.add(new ReviewItem(sample, hit, key, isAutoCreateCategory, false));
+                    processedCount++;
+                } else {
+                    enqueueForAi(key);
+                }
             }
+            updateProgress();
+        }
 
-            // 🔥 使用 handle 捕获该批次的所有结果（包括异常）
-            CompletableFuture<Void> future = AICategorizer.categorizeAsync(batchItems,
-                            CategoryManager.getExpenseCategoryTree(),
-                            CategoryManager.getIncomeCategoryTree(),
-                            CategoryManager.getPersonalizations())
-                    .handle((results, ex) -> {
-                        javafx.application.Platform.runLater(() -> {
-                            // 遍历本批次原始请求的所有 key，逐一检查是否分析成功
-                            for (String key : batchKeys) {
-                                if (!groupedBills.containsKey(key)) continue;
-                                Bill sample = groupedBills.get(key).get(0);
-
-                                // 如果没有异常且结果包含该 key，则正常添加；否则标记为失败
-                                if (ex == null && results != null && results.containsKey(key)) {
-                                    reviewData.add(new ReviewItem(sample, results.get(key), key, isAutoCreateCategory, false));
-                                } else {
-                                    // 分析失败：依然添加到表格，但 failed 标志位设为 true
-                                    reviewData.add(new ReviewItem(sample, null, key, isAutoCreateCategory, true));
-                                }
-                            }
+        void onParseProgress(double fraction) {
+            if (cancelled || parseFinished || fraction < 0) return;
+            sLabel.setText(String.format("📄 正在解析文件 %.0f%%，AI 同步分析中...", fraction * 100));
+        }
 
-                            // 3. 并行更新进度条（无论成功还是失败，都要计入进度）
-                            int current = processedCount.addAndGet(batchKeys.size());
-                            double p = (double) current / totalItems;
-                            pb.setProgress(p);
-                            pText.setText(current + " / " + totalItems);
-                        });
-                        return null;
-                    });
+        void onParseFinished() {
+            if (cancelled) return;
+            parseFinished = true;
+            sLabel.setText("🤖 AI 正在深度分析中...");
+            scheduler.flush(); // 解析结束，不足一批的零头也发出去
+            checkFinished();
+        }
+
+        void cancel() {
+            cancelled = true;
+            scheduler.cancel();
+        }
+
+        boolean isEmpty() {
+            return rawBills.isEmpty();
+        }
+
+        List<Bill> getRawBills() {
+            return rawBills;
+        }
+
+        Map<String, List<Bill>> getGroupedBills() {
+            return groupedBills;
+        }
 
-            futures.add(future);
+        /**
+         * 把未命中的分组交给调度器，由它决定何时、以多大的批次发给 AI
+         */
+        private void enqueueForAi(String key) {
+            if (!categorizeStarted) {
+                categorizeStarted = true;
+                report.startPhase(ImportReport.Phase.CATEGORIZE);
+            }
+            Bill sample = groupedBills.get(key).get(0);
+            Map<String, Object> aiItem = prepareBillForAi(sample);
+            aiItem.put("unique_id", key);
+            // 回调在后台线程，提前备好写缓存要用的 [描述, 收支类型]，避免跨线程读 groupedBills
+            aiKeyInfo.put(key, new String[]{getSafeDesc(sample.getRemark()), sample.getType()});
+            scheduler.enqueue(aiItem);
+        }
+
+        /**
+         * 流式条目回调（后台线程）：一个商户的结果一闭合就上表
+         */
+        private void onAiEntry(String key, AICategorizer.CategoryResult result) {
+            javafx.application.Platform.runLater(() -> {
+                if (cancelled || !shownKeys.add(key)) return;
+                List<Bill> group = groupedBills.get(key);
+                if (group == null) return; // 模型编造的 key
+                reviewData.add(new ReviewItem(group.get(0), result, key, isAutoCreateCategory, false));
+                processedCount++;
+                updateProgress();
+            });
         }
 
-        // 4. 监听“全员收工”：无论成败都要恢复按钮
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                .whenComplete((v, ex) -> javafx.application.Platform.runLater(() -> {
-                    if (ex != null || reviewData.stream().anyMatch(ReviewItem::isFailed)) {
-                        sLabel.setText("\u26A0 部分任务分析失败，已标记为黄色，请手动核对");
+        /**
+         * 调度器回调（后台线程）：写缓存，再切回 FX 线程上表
+         */
+        private void onAiBatchDone(List<String> batchKeys, Map<String, AICategorizer.CategoryResult> results, Throwable ex) {
+            // 失败的批次也可能带着流式先到的部分结果，一并写缓存
+            if (results != null && !cancelled) {
+                CategorizationCache.putAiResults(aiKeyInfo, results, taxonomyHash);
+            }
+            javafx.application.Platform.runLater(() -> {
+                if (cancelled) return;
+                // 遍历本批次原始请求的所有 key，逐一检查是否分析成功（流式已上表的跳过）
+                int added = 0;
+                for (String key : batchKeys) {
+                    if (!shownKeys.add(key)) continue;
+                    added++;
+                    Bill sample = groupedBills.get(key).get(0);
+
+                    // 结果包含该 key 则正常添加；否则标记为失败
+                    if (results != null && results.get(key) != null) {
+                        reviewData.add(new ReviewItem(sample, results.get(key), key, isAutoCreateCategory, false));
                     } else {
-                        sLabel.setText("✅全部分析完成，请核对并修正结果");
+                        // 分析失败：先用本地模型兜底，其次是最相似的历史账单，都没有才标黄
+                        AICategorizer.CategoryResult local =
+                                localResult(LocalBillClassifier.predict(sample.getRemark(), sample.getType()));
+                        if (local == null) {
+                            local = vectorResult(BillVectorIndex.suggest(sample.getRemark(), sample.getType()));
+                        }
+                        reviewData.add(new ReviewItem(sample, local, key, isAutoCreateCategory, local == null));
                     }
-                    btn.setDisable(false); // 必须放开按钮，让用户能完成导入
-                }));
+                }
+
+                // 并行更新进度条（无论成功还是失败，都要计入进度）
+                processedCount += added;
+                updateProgress();
+                checkFinished();
+            });
+        }
+
+        private AICategorizer.CategoryResult localResult(LocalBillClassifier.Prediction prediction) {
+            if (prediction == null) return null;
+            AICategorizer.CategoryResult result = new AICategorizer.CategoryResult();
+            result.suggestion = prediction.toSuggestion();
+            result.isNew = false;
+            result.fallback = prediction.parent();
+            result.reason = String.format("本地模型预测，置信度 %.0f%%", prediction.confidence() * 100);
+            return result;
+        }
+
+        private AICategorizer.CategoryResult vectorResult(BillVectorIndex.Suggestion suggestion) {
+            if (suggestion == null) return null;
+            AICategorizer.CategoryResult result = new AICategorizer.CategoryResult();
+            result.suggestion = suggestion.toSuggestion();
+            result.isNew = false;
+            result.fallback = suggestion.parent();
+            result.reason = String.format("与历史账单“%s”相似，相似度 %.0f%%",
+                    suggestion.nearest().remark(), suggestion.similarity() * 100);
+            return result;
+        }
+
+        private AICategorizer.CategoryResult ruleResult(KeywordRuleEngine.Rule rule) {
+            AICategorizer.CategoryResult result = new AICategorizer.CategoryResult();
+            result.suggestion = rule.toSuggestion();
+            result.isNew = false;
+            result.fallback = rule.parent();
+            result.reason = "命中关键词规则：" + rule.keyword();
+            return result;
+        }
+
+        /**
+         * 分组 key -> [描述, 收支类型]，供缓存使用
+         */
+        private void updateProgress() {
+            int total = groupedBills.size();
+            pb.setProgress(total == 0 ? 0 : (double) processedCount / total);
+            pText.setText(processedCount + " / " + total + (parseFinished ? "" : " (解析中)"));
+        }
+
+        /**
+         * “全员收工”：解析结束且所有分组都有了结果，无论成败都要恢复按钮
+         */
+        private void checkFinished() {
+            if (finished || !parseFinished || processedCount < groupedBills.size()) return;
+            finished = true;
+            report.endPhase(ImportReport.Phase.CATEGORIZE);
+            report.startPhase(ImportReport.Phase.REVIEW);
+            if (reviewData.stream().anyMatch(ReviewItem::isFailed)) {
+                sLabel.setText("\u26A0 部分任务分析失败，已标记为黄色，请手动核对");
+            } else {
+                sLabel.setText("✅全部分析完成，请核对并修正结果");
+            }
+            btn.setDisable(false); // 必须放开按钮，让用户能完成导入
+        }
     }
 
     /**
@@ -1388,7 +1850,10 @@ public class HelloController implements Initializable {
     /**
      * 处理最终的账单导入
      */
-    private void handleFinalImport(List<Bill> rawBills, List<ReviewItem> items) {
+    private void handleFinalImport(List<Bill> rawBills, Map<String, List<Bill>> groupedBills, List<ReviewItem> items,
+                                   ImportReport report) {
+        report.startPhase(ImportReport.Phase.SAVE);
+        List<String[]> approved = new ArrayList<>();
         for (ReviewItem item : items) {
             String finalParent;
             String finalSub = "无".equals(item.subCategoryProperty().get()) ? null : item.subCategoryProperty().get();
@@ -1421,21 +1886,103 @@ public class HelloController implements Initializable {
                 CategoryManager.addCustomChildCategory(finalParent, finalSub);
             }
 
-            // 精准同步：必须匹配 [描述] 和 [收支类型]
-            for (Bill b : rawBills) {
-                String billUniqueId = getSafeDesc(b.getRemark()) + "|" + b.getType();
-                if (billUniqueId.equals(item.getUniqueId())) { // ReviewItem 里要存这个 uniqueId
-                    b.setCategory(finalParent);
-                    b.setSubCategory(finalSub);
-                }
+            // 精准同步：分组 key 即 [描述] + [收支类型]，直接取出该组的全部账单
+            for (Bill b : groupedBills.getOrDefault(item.getUniqueId(), List.of())) {
+                b.setCategory(finalParent);
+                b.setSubCategory(finalSub);
+            }
+            // 记住用户最终确认的分类，下次导入同一商户直接命中（未分类的不记）
+            if (finalParent != null && !"未分类".equals(finalParent)) {
+                approved.add(new String[]{item.getOriginalDesc(), item.getBillType(), finalParent, finalSub});
+            }
+        }
+        CategorizationCache.putApproved(approved);
+        // 去重：同一天、同金额、同收支、同备注的账单已在库中的不再重复写入（按次数抵扣，允许真实的重复消费）
+        Map<String, Integer> existing = new HashMap<>();
+        for (Bill b : allBills) {
+            existing.merge(dedupKey(b), 1, Integer::sum);
+        }
+        List<Bill> toSave = new ArrayList<>(rawBills.size());
+        for (Bill b : rawBills) {
+            String key = dedupKey(b);
+            Integer left = existing.get(key);
+            if (left != null && left > 0) {
+                existing.put(key, left - 1);
+            } else {
+                toSave.add(b);
             }
         }
+        report.recordDuplicates(rawBills.size() - toSave.size());
+        LocalBillClassifier.learnAll(toSave);
+        BillVectorIndex.addAll(toSave);
+
         // 保存入库并刷新主界面
-        DataStore.addBillsIncremental(rawBills);
+        DataStore.addBillsIncremental(toSave);
         allBills = DataStore.loadBills();
         onSearchClick(null);
         updateCategoryFilterByType(); // 刷新主界面左侧的筛选下拉框
-        showGeneralSuccess("成功导入并分类 " + rawBills.size() + " 条账单！");
+        report.endPhase(ImportReport.Phase.SAVE);
+        showGeneralSuccess("成功导入并分类 " + toSave.size() + " 条账单！");
+    }
+
+    /**
+     * 后台用全部历史账单重建本地分类模型与相似账单索引
+     */
+    private void retrainLocalClassifier() {
+        List<Bill> snapshot = new ArrayList<>(allBills);
+        Thread thread = new Thread(() -> {
+            LocalBillClassifier.retrain(snapshot);
+            BillVectorIndex.rebuild(snapshot);
+        }, "local-classifier-train");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static String dedupKey(Bill b) {
+        return b.getDate() + "|" + String.format("%.2f", b.getAmount()) + "|" + b.getType() + "|" + b.getRemark();
+    }
+
+    /**
+     * 导入结束后展示导入报告，可导出被拒绝的原始行
+     */
+    private void showImportReport(ImportReport report) {
+        JFXDialogLayout content = new JFXDialogLayout();
+        content.setHeading(new Label("导入报告"));
+        TextArea summary = new TextArea(report.toSummary());
+        summary.setEditable(false);
+        summary.setWrapText(true);
+        summary.setPrefSize(520, 260);
+        content.setBody(summary);
+
+        JFXDialog dialog = new JFXDialog(rootStackPane, content, JFXDialog.DialogTransition.CENTER);
+
+        JFXButton btnExport = new JFXButton("导出被拒行");
+        btnExport.setStyle("-fx-text-fill: #909399; -fx-font-size: 14px;");
+        btnExport.setDisable(!report.hasRejects());
+        btnExport.setOnAction(e -> {
+            FileChooser chooser = new FileChooser();
+            chooser.setTitle("导出被拒行");
+            String base = report.getSourceName();
+            int dot = base.lastIndexOf('.');
+            chooser.setInitialFileName((dot > 0 ? base.substring(0, dot) : base) + "_rejects.csv");
+            chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV 文件", "*.csv"));
+            File target = chooser.showSaveDialog(rootStackPane.getScene().getWindow());
+            if (target == null) return;
+            try {
+                report.exportRejects(target);
+                showGeneralSuccess("被拒行已导出");
+            } catch (java.io.IOException ex) {
+                ex.printStackTrace();
+                showTopRightError("导出失败：" + ex.getMessage());
+            }
+        });
+
+        JFXButton btnClose = new JFXButton("关闭");
+        btnClose.setStyle("-fx-text-fill: #409eff; -fx-font-weight: bold; -fx-font-size: 14px;");
+        btnClose.setOnAction(e -> dialog.close());
+
+        content.setActions(btnExport, btnClose);
+        dialog.show();
     }
 
     @FXML
@@ -1553,15 +2100,8 @@ public class HelloController implements Initializable {
         iconView.setFitWidth(24);
         iconView.setFitHeight(24);
 
-        try {
-            String iconFile = getIconName(emojiStr); // 使用现有的转换方法
-            java.io.InputStream is = getClass().getResourceAsStream("/cn/bit/budget/icons/" + iconFile);
-            if (is != null) {
-                iconView.setImage(new javafx.scene.image.Image(is));
-                toast.getChildren().add(iconView); // 只有找到图片才添加
-            }
-        } catch (Exception e) {
-            // 图片加载失败不做处理，直接显示纯文字
+        if (EmojiIconCache.apply(iconView, emojiStr)) {
+            toast.getChildren().add(iconView); // 只有找到图片才添加
         }
 
         // 3. 创建文字 Label
@@ -1681,7 +2221,8 @@ public class HelloController implements Initializable {
                         isActuallyNew = false;
                     } else {
                         // 校验 2：检查该词是否是某个已存在的二级分类 (解决“快递”越级 Bug)
-                        String autoParent = CategoryManager.findParentByChild(suggestion);
+                        // 同名二级可能挂在多个一级下，按账单收支类型消歧
+                        String autoParent = CategoryManager.findParentByChild(suggestion, billType);
                         if (autoParent != null) {
                             pCat = autoParent;
                             sCat = suggestion;
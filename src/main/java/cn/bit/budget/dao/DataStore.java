@@ -13,51 +13,29 @@ import java.util.List;
 
 
 /**
- * 数据存储类 (V3.0 - SQLite 数据库版)
+ * 数据存储类 (V3.1 - SQLite 数据库版)
  * 相比 CSV 版本：支持 ACID 事务、毫秒级查询、数据类型强制约束
+ * V3.1：账单实际存在 bill_records（分类为整数外键），读写经 bills 兼容视图按名称进行，
+ * 按分类删除直接比较整数 id
  */
 public class DataStore {
 
-    private static final String DB_URL = "jdbc:sqlite:budget_manager.db";
+    private static final String DB_URL = "jdbc:sqlite:budget_manager.db?foreign_keys=on";
     private static final DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
 
     static {
-        // 1. 初始化数据库表结构
-        initDatabase();
+        // 表结构由 DatabaseBootstrap 统一创建
+        DatabaseBootstrap.ensureSchema();
     }
 
     private DataStore() {}
 
-    /**
-     * 初始化数据库：如果表不存在则创建
-     */
-    private static void initDatabase() {
-        String sql = """
-            CREATE TABLE IF NOT EXISTS bills (
-                id TEXT PRIMARY KEY,
-                amount REAL NOT NULL,
-                category TEXT NOT NULL,
-                sub_category TEXT,
-                date TEXT NOT NULL,
-                type TEXT NOT NULL,
-                remark TEXT,
-                create_time TEXT NOT NULL
-            );
-            """;
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(sql);
-        } catch (SQLException e) {
-            System.err.println("数据库初始化失败: " + e.getMessage());
-        }
-    }
-
     /**
      * 全量保存账单（兼容原有逻辑）
      * 采用“删除记录+事务批处理插入”方案，确保原子性
      */
     public static void saveBills(List<Bill> bills) {
-        String deleteSql = "DELETE FROM bills";
+        String deleteSql = "DELETE FROM bill_records";
         String insertSql = "INSERT INTO bills VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 
         try (Connection conn = DriverManager.getConnection(DB_URL)) {
@@ -66,6 +44,9 @@ public class DataStore {
             // 1. 先清空表（对应原来 CSV 的覆盖写入）
             try (Statement delStmt = conn.createStatement()) {
                 delStmt.executeUpdate(deleteSql);
+                // 不再被任何账单引用的隐藏分类一并清掉
+                delStmt.executeUpdate("DELETE FROM sub_categories WHERE hidden = 1");
+                delStmt.executeUpdate("DELETE FROM categories WHERE hidden = 1");
             }
 
             // 2. 批量插入
@@ -96,8 +77,9 @@ public class DataStore {
      * 增量保存：只插入库里没有的账单
      */
     public static void addBillsIncremental(List<Bill> newBills) {
-        // 关键在于 OR IGNORE，这样重复导入同一个文件也不会报错或重记
-        String sql = "INSERT OR REPLACE INTO bills VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        // 视图的 INSERT 触发器按 id 覆盖已有记录，重复导入同一个文件也不会报错或重记。
+        // 这里不能写 OR REPLACE：外层冲突策略会传进触发器，替换分类行时级联删掉账单
+        String sql = "INSERT INTO bills VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 
         try (Connection conn = DriverManager.getConnection(DB_URL)) {
             conn.setAutoCommit(false);
@@ -157,7 +139,7 @@ public class DataStore {
      * 删除指定一级分类的所有账单（原生 SQL 实现，效率极高）
      */
     public static int deleteBillsByCategory(String category) {
-        String sql = "DELETE FROM bills WHERE category = ?";
+        String sql = "DELETE FROM bill_records WHERE category_id = (SELECT id FROM categories WHERE name = ?)";
         try (Connection conn = DriverManager.getConnection(DB_URL);
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, category);
@@ -172,7 +154,11 @@ public class DataStore {
      * 删除指定二级分类的所有账单
      */
     public static int deleteBillsBySubCategory(String parentCategory, String subCategory) {
-        String sql = "DELETE FROM bills WHERE category = ? AND sub_category = ?";
+        String sql = """
+                DELETE FROM bill_records WHERE sub_category_id = (
+                    SELECT s.id FROM sub_categories s JOIN categories c ON c.id = s.parent_id
+                    WHERE c.name = ? AND s.name = ?)
+                """;
         try (Connection conn = DriverManager.getConnection(DB_URL);
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, parentCategory);
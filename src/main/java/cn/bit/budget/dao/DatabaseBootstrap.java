@@ -0,0 +1,299 @@
+package cn.bit.budget.dao;
+
+import java.sql.*;
+
+/**
+ * 数据库统一启动器 (V1.1)
+ * <p>
+ * 以前每个类在自己的静态块里各建各的表，CategoryManager 每次启动还要把内置分类逐条 INSERT 一遍
+ * （约 90 次，每次新开一个连接）。现在：
+ * <ul>
+ *     <li>{@link #ensureSchema()}：所有表结构在一个事务里建好，每个进程只执行一次；</li>
+ *     <li>{@link #applySeed(String, Seeder)}：种子数据带版本号记在 app_meta 表，
+ *     版本没变就整个跳过，变了才在单个事务里重新写入并更新版本号。</li>
+ *     <li>V1.1：分类改用整数主键，账单表 bill_records 只存分类 id（带索引的外键），改名只改一行；
+ *     原 bills 表变为同名兼容视图，读写账单的代码不用改。旧库首次启动时自动迁移。</li>
+ * </ul>
+ * </p>
+ */
+public class DatabaseBootstrap {
+
+    // 每个连接都打开外键约束，删除分类时级联删除其二级分类和账单
+    private static final String DB_URL = "jdbc:sqlite:budget_manager.db?foreign_keys=on";
+    private static final String SEED_VERSION_KEY = "seed_version";
+    private static final String SCHEMA_VERSION_KEY = "schema_version";
+    private static final int SCHEMA_VERSION = 2;
+    private static final String APP_META_DDL = """
+        CREATE TABLE IF NOT EXISTS app_meta (
+            key TEXT PRIMARY KEY,
+            value TEXT NOT NULL
+        );
+    """;
+
+    private static boolean schemaReady = false;
+
+    /**
+     * 种子数据写入逻辑，在 applySeed 打开的事务内执行
+     */
+    @FunctionalInterface
+    public interface Seeder {
+        void seed(Connection conn) throws SQLException;
+    }
+
+    private DatabaseBootstrap() {}
+
+    public static Connection getConnection() throws SQLException {
+        return DriverManager.getConnection(DB_URL);
+    }
+
+    /**
+     * 建立全部表结构（幂等，每个进程只真正执行一次）；旧版（以名称为主键）的库先迁移到 V2
+     */
+    public static synchronized void ensureSchema() {
+        if (schemaReady) return;
+        try (Connection conn = getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(APP_META_DDL);
+            }
+            if (readMeta(conn, SCHEMA_VERSION_KEY) == null && tableExists(conn, "bills", "table")) {
+                migrateToV2(conn);
+            }
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                createTables(stmt);
+                writeMeta(conn, SCHEMA_VERSION_KEY, String.valueOf(SCHEMA_VERSION));
+                conn.commit();
+                schemaReady = true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println("数据库初始化失败: " + e.getMessage());
+        }
+    }
+
+    private static void createTables(Statement stmt) throws SQLException {
+        // 一级分类；hidden = 1 表示只被账单引用、不在界面显示的分类（导入了分类体系里没有的名称）
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS categories (
+                id INTEGER PRIMARY KEY,
+                name TEXT NOT NULL UNIQUE,
+                type TEXT NOT NULL,
+                emoji TEXT,
+                hidden INTEGER NOT NULL DEFAULT 0
+            );
+        """);
+        // 二级分类
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS sub_categories (
+                id INTEGER PRIMARY KEY,
+                parent_id INTEGER NOT NULL REFERENCES categories(id) ON DELETE CASCADE,
+                name TEXT NOT NULL,
+                emoji TEXT,
+                hidden INTEGER NOT NULL DEFAULT 0,
+                UNIQUE (parent_id, name)
+            );
+        """);
+        // 账单：分类只存整数外键，改名不用动账单
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS bill_records (
+                id TEXT PRIMARY KEY,
+                amount REAL NOT NULL,
+                category_id INTEGER NOT NULL REFERENCES categories(id) ON DELETE CASCADE,
+                sub_category_id INTEGER REFERENCES sub_categories(id) ON DELETE CASCADE,
+                date TEXT NOT NULL,
+                type TEXT NOT NULL,
+                remark TEXT,
+                create_time TEXT NOT NULL
+            );
+        """);
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_bill_records_category ON bill_records(category_id, sub_category_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_bill_records_sub ON bill_records(sub_category_id)");
+        // 兼容视图：列与旧 bills 表一致，读写账单的代码照旧使用名称
+        stmt.execute("""
+            CREATE VIEW IF NOT EXISTS bills AS
+            SELECT b.id, b.amount, c.name AS category, s.name AS sub_category,
+                   b.date, b.type, b.remark, b.create_time
+            FROM bill_records b
+            JOIN categories c ON c.id = b.category_id
+            LEFT JOIN sub_categories s ON s.id = b.sub_category_id;
+        """);
+        // 写入视图：名称换成 id，分类体系里没有的名称补一行隐藏分类；同 id 覆盖旧记录。
+        // 注意外层语句只能是普通 INSERT：外层的 OR REPLACE 会覆盖这里的冲突策略，进而级联删掉账单
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS bills_insert INSTEAD OF INSERT ON bills
+            BEGIN
+                INSERT OR IGNORE INTO categories(name, type, hidden) VALUES (NEW.category, NEW.type, 1);
+                INSERT OR IGNORE INTO sub_categories(parent_id, name, hidden)
+                    SELECT id, NEW.sub_category, 1 FROM categories
+                    WHERE name = NEW.category AND NEW.sub_category IS NOT NULL AND NEW.sub_category <> '';
+                INSERT INTO bill_records(id, amount, category_id, sub_category_id, date, type, remark, create_time)
+                    SELECT NEW.id, NEW.amount, c.id, s.id, NEW.date, NEW.type, NEW.remark, NEW.create_time
+                    FROM categories c
+                    LEFT JOIN sub_categories s ON s.parent_id = c.id AND s.name = NEW.sub_category
+                    WHERE c.name = NEW.category
+                    ON CONFLICT(id) DO UPDATE SET
+                        amount = excluded.amount, category_id = excluded.category_id,
+                        sub_category_id = excluded.sub_category_id, date = excluded.date, type = excluded.type,
+                        remark = excluded.remark, create_time = excluded.create_time;
+            END;
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS bills_delete INSTEAD OF DELETE ON bills
+            BEGIN
+                DELETE FROM bill_records WHERE id = OLD.id;
+            END;
+        """);
+        stmt.execute("""
+            CREATE TRIGGER IF NOT EXISTS bills_update INSTEAD OF UPDATE ON bills
+            BEGIN
+                DELETE FROM bill_records WHERE id = OLD.id;
+                INSERT INTO bills VALUES (NEW.id, NEW.amount, NEW.category, NEW.sub_category,
+                                          NEW.date, NEW.type, NEW.remark, NEW.create_time);
+            END;
+        """);
+        // AI 分类结果缓存（见 CategorizationCache）
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS category_cache (
+                desc_key TEXT NOT NULL,
+                type TEXT NOT NULL,
+                taxonomy_hash TEXT NOT NULL,
+                source TEXT NOT NULL,
+                parent TEXT NOT NULL,
+                sub TEXT,
+                suggestion TEXT NOT NULL,
+                is_new INTEGER NOT NULL,
+                fallback TEXT,
+                last_used INTEGER NOT NULL,
+                PRIMARY KEY (desc_key, type, taxonomy_hash)
+            );
+        """);
+        stmt.execute("CREATE INDEX IF NOT EXISTS idx_category_cache_lru ON category_cache(last_used)");
+        // 关键词规则（见 KeywordRuleEngine）
+        stmt.execute("""
+            CREATE TABLE IF NOT EXISTS category_rules (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                keyword TEXT NOT NULL,
+                type TEXT NOT NULL DEFAULT '',
+                parent TEXT NOT NULL,
+                sub TEXT,
+                priority INTEGER NOT NULL DEFAULT 0,
+                UNIQUE (keyword, type)
+            );
+        """);
+    }
+
+    /**
+     * V1 -> V2：旧表改名后按 V2 建表，分类按原顺序拷贝（id 即原顺序），账单经视图写入换成 id。
+     * 整个迁移在一个事务里，失败回滚后旧数据原样保留，下次启动重试
+     */
+    private static void migrateToV2(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // 迁移期间新旧表互相引用，先关外键检查（只能在事务外切换）
+            stmt.execute("PRAGMA foreign_keys = OFF");
+            conn.setAutoCommit(false);
+            try {
+                boolean hasCategories = tableExists(conn, "categories", "table");
+                boolean hasSubCategories = tableExists(conn, "sub_categories", "table");
+                stmt.execute("ALTER TABLE bills RENAME TO bills_v1");
+                if (hasCategories) stmt.execute("ALTER TABLE categories RENAME TO categories_v1");
+                if (hasSubCategories) stmt.execute("ALTER TABLE sub_categories RENAME TO sub_categories_v1");
+                createTables(stmt);
+
+                if (hasCategories) {
+                    stmt.execute("""
+                        INSERT INTO categories(name, type, emoji, hidden)
+                        SELECT name, type, emoji, 0 FROM categories_v1 ORDER BY rowid
+                    """);
+                }
+                if (hasCategories && hasSubCategories) {
+                    stmt.execute("""
+                        INSERT INTO sub_categories(parent_id, name, emoji, hidden)
+                        SELECT c.id, s.name, s.emoji, 0
+                        FROM sub_categories_v1 s JOIN categories c ON c.name = s.parent_name
+                        ORDER BY s.rowid
+                    """);
+                }
+                stmt.execute("""
+                    INSERT INTO bills
+                    SELECT id, amount, category, sub_category, date, type, remark, create_time FROM bills_v1
+                """);
+                // 触发器里补建的隐藏分类也会计入更新条数，这里单独数
+                int bills;
+                try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM bill_records")) {
+                    bills = rs.next() ? rs.getInt(1) : 0;
+                }
+
+                stmt.execute("DROP TABLE bills_v1");
+                if (hasSubCategories) stmt.execute("DROP TABLE sub_categories_v1");
+                if (hasCategories) stmt.execute("DROP TABLE categories_v1");
+                writeMeta(conn, SCHEMA_VERSION_KEY, String.valueOf(SCHEMA_VERSION));
+                conn.commit();
+                System.out.println("数据库已升级到 V" + SCHEMA_VERSION + "，迁移账单 " + bills + " 条");
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+                stmt.execute("PRAGMA foreign_keys = ON");
+            }
+        }
+    }
+
+    /**
+     * 版本不同才写入种子数据；写入与版本号更新在同一个事务里，中途失败整体回滚，下次启动重试
+     *
+     * @return true 如果本次执行了写入
+     */
+    public static synchronized boolean applySeed(String version, Seeder seeder) {
+        ensureSchema();
+        try (Connection conn = getConnection()) {
+            if (version.equals(readMeta(conn, SEED_VERSION_KEY))) return false;
+
+            conn.setAutoCommit(false);
+            try {
+                seeder.seed(conn);
+                writeMeta(conn, SEED_VERSION_KEY, version);
+                conn.commit();
+                System.out.println("已写入内置分类数据，版本 " + version);
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static String readMeta(Connection conn, String key) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT value FROM app_meta WHERE key = ?")) {
+            pstmt.setString(1, key);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static void writeMeta(Connection conn, String key, String value) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO app_meta(key, value) VALUES (?, ?) ON CONFLICT(key) DO UPDATE SET value = excluded.value")) {
+            pstmt.setString(1, key);
+            pstmt.setString(2, value);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String name, String type) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT 1 FROM sqlite_master WHERE type = ? AND name = ?")) {
+            pstmt.setString(1, type);
+            pstmt.setString(2, name);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package cn.bit.budget.util;
+
+import com.google.gson.Gson;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * AI 分类批次调度器 (V1.2)
+ * <p>
+ * 以前每凑够 5 个商户就立刻发一个请求，2000 个商户的导入会同时打出 400 个请求，一起被限流、一起超时。
+ * 调度器接管排队与发送：
+ * <ul>
+ *     <li>并发上限：同时在途的请求数不超过上限（系统属性 budget.ai.concurrency，默认 4）；</li>
+ *     <li>按 token 组批：按估算的 prompt token 数装批，而不是固定条数；</li>
+ *     <li>退避重试：429 / 5xx / 网络异常按指数退避 + 抖动重试；输出被截断时把批次对半拆开重发；</li>
+ *     <li>自适应 (AIMD)：成功时并发 +1，被限流时并发减半；延迟过高或出现截断时缩小批次，响应快时逐步放大；</li>
+ *     <li>流式 (V1.1)：默认走 SSE，结果逐条回调；中途失败只重发还没拿到结果的条目；</li>
+ *     <li>可插拔后端 (V1.2)：请求交给 {@link Categorizer}，默认是 {@link AICategorizer#getDefault()}；</li>
+ *     <li>每次尝试的延迟、重试与失败原因记入 {@link AIMetrics}。</li>
+ * </ul>
+ * </p>
+ * 发送与结果处理都在调度线程上进行，不在调度器锁内执行，回调也在调度线程上触发，UI 更新需自行切回 FX 线程。
+ */
+public class AIBatchScheduler {
+
+    private static final int DEFAULT_MAX_CONCURRENCY = Integer.getInteger("budget.ai.concurrency", 4);
+    private static final int MAX_RETRIES = 4;
+    private static final long BASE_BACKOFF_MS = 1_000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    // 批次 token 预算的取值范围与初值
+    private static final int MIN_BATCH_TOKENS = 60;
+    private static final int MAX_BATCH_TOKENS = 1_500;
+    private static final int INITIAL_BATCH_TOKENS = 300;
+    private static final int MAX_BATCH_ITEMS = 40;
+    // 单批延迟超过该值就缩小批次
+    private static final long TARGET_LATENCY_MS = 15_000;
+
+    private static final Gson gson = new Gson();
+    // 发送、结果处理与退避重试都走这条线程：已完成的 future（熔断快速失败、本地后端、合并命中）
+    // 若在 pump 持锁时直接回调，会在锁内重入 pump/send，调用栈随批次增长
+    private static final ScheduledExecutorService DISPATCHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ai-batch-dispatch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * 每个批次的最终结果（成功或放弃重试后）回调
+     */
+    public interface Listener {
+        /**
+         * @param ids     本批次包含的 unique_id（含此前各次尝试中流式拿到结果的条目）
+         * @param results 已拿到的 AI 结果；失败时只含流式先到的条目，一条都没有时为 null
+         * @param error   失败原因，成功时为 null
+         */
+        void onBatchDone(List<String> ids, Map<String, AICategorizer.CategoryResult> results, Throwable error);
+
+        /**
+         * 流式模式下单条结果先行到达；随后的 onBatchDone 仍会带上整批 id，接收方需自行去重
+         */
+        default void onEntry(String id, AICategorizer.CategoryResult result) {}
+    }
+
+    private record Item(String id, Map<String, Object> payload, int tokens) {}
+
+    private final Map<String, List<String>> expenseTree;
+    private final Map<String, List<String>> incomeTree;
+    private final List<String> personalizations;
+    private final Listener listener;
+    private final Categorizer categorizer;
+    private final int maxConcurrency;
+
+    // 以下状态均在 this 锁内访问
+    private final Deque<Item> queue = new ArrayDeque<>();
+    private int concurrencyLimit;
+    private int inFlight = 0;
+    private int batchTokens = INITIAL_BATCH_TOKENS;
+    private double latencyEwmaMs = -1;
+    private boolean flushing = false;
+    private volatile boolean cancelled = false; // 流式回调在锁外读取
+
+    public AIBatchScheduler(Map<String, List<String>> expenseTree, Map<String, List<String>> incomeTree,
+                            List<String> personalizations, Listener listener) {
+        this(expenseTree, incomeTree, personalizations, listener, AICategorizer.getDefault(), DEFAULT_MAX_CONCURRENCY);
+    }
+
+    public AIBatchScheduler(Map<String, List<String>> expenseTree, Map<String, List<String>> incomeTree,
+                            List<String> personalizations, Listener listener,
+                            Categorizer categorizer, int maxConcurrency) {
+        this.expenseTree = expenseTree;
+        this.incomeTree = incomeTree;
+        this.personalizations = personalizations;
+        this.listener = listener;
+        this.categorizer = categorizer;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.concurrencyLimit = Math.min(2, this.maxConcurrency); // 慢启动
+    }
+
+    /**
+     * 加入一个待分类条目（必须含 unique_id）
+     */
+    public synchronized void enqueue(Map<String, Object> item) {
+        if (cancelled) return;
+        String id = String.valueOf(item.get("unique_id"));
+        queue.add(new Item(id, item, estimateTokens(gson.toJson(item))));
+        pump();
+    }
+
+    /**
+     * 不再有新条目：允许把不足一批的零头也发出去
+     */
+    public synchronized void flush() {
+        flushing = true;
+        pump();
+    }
+
+    /**
+     * 丢弃排队中的条目，在途请求的结果不再回调
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        queue.clear();
+    }
+
+    public synchronized int getConcurrencyLimit() { return concurrencyLimit; }
+
+    public synchronized int getBatchTokens() { return batchTokens; }
+
+    /**
+     * 粗略估算 token：中日韩字符约 1 token/字，其余约 4 字符/token
+     */
+    public static int estimateTokens(String text) {
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.UnicodeScript.of(text.charAt(i)) == Character.UnicodeScript.HAN) cjk++;
+            else other++;
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    // ================== 内部实现 ==================
+
+    /**
+     * 在并发额度内尽可能多地发出批次
+     */
+    private void pump() {
+        while (!cancelled && inFlight < concurrencyLimit && !queue.isEmpty()) {
+            if (!flushing && queuedTokens() < batchTokens) return; // 攒不满一批，等后续条目
+            List<Item> batch = new ArrayList<>();
+            int tokens = 0;
+            while (!queue.isEmpty() && batch.size() < MAX_BATCH_ITEMS) {
+                Item next = queue.peek();
+                if (!batch.isEmpty() && tokens + next.tokens() > batchTokens) break;
+                batch.add(queue.poll());
+                tokens += next.tokens();
+            }
+            inFlight++;
+            DISPATCHER.execute(() -> send(batch, 0, Map.of()));
+        }
+    }
+
+    private int queuedTokens() {
+        int sum = 0;
+        for (Item item : queue) {
+            sum += item.tokens();
+            if (sum >= batchTokens) break;
+        }
+        return sum;
+    }
+
+    /**
+     * @param carried 之前各次尝试流式拿到的结果，随重试一路带到最终的 onBatchDone，保证能写进缓存
+     */
+    private void send(List<Item> batch, int attempt, Map<String, AICategorizer.CategoryResult> carried) {
+        if (cancelled) {
+            // 取消前已排好的重试：不再发请求，只归还并发额度
+            synchronized (this) {
+                inFlight--;
+            }
+            return;
+        }
+        List<Map<String, Object>> payload = new ArrayList<>(batch.size());
+        for (Item item : batch) payload.add(item.payload());
+        long start = System.nanoTime();
+
+        Map<String, AICategorizer.CategoryResult> streamed = new ConcurrentHashMap<>();
+        CompletableFuture<Map<String, AICategorizer.CategoryResult>> future;
+        try {
+            future = categorizer.categorize(payload, expenseTree, incomeTree, personalizations,
+                    (id, result) -> {
+                        if (cancelled) return;
+                        if (result != null) streamed.put(id, result);
+                        listener.onEntry(id, result);
+                    });
+        } catch (RuntimeException e) {
+            // 后端同步抛异常时没有 future：照常走 onResponse 归还额度并回调
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenCompleteAsync((results, ex) -> onResponse(batch, attempt, results, unwrap(ex), streamed, carried,
+                (System.nanoTime() - start) / 1_000_000), DISPATCHER);
+    }
+
+    private void onResponse(List<Item> batch, int attempt, Map<String, AICategorizer.CategoryResult> results,
+                            Throwable error, Map<String, AICategorizer.CategoryResult> streamed,
+                            Map<String, AICategorizer.CategoryResult> carried, long latencyMs) {
+        AICategorizer.AIRequestException apiError =
+                error instanceof AICategorizer.AIRequestException e ? e : null;
+        AIMetrics.recordAttempt(batch.size(), latencyMs, attempt, error);
+
+        synchronized (this) {
+            if (cancelled) {
+                inFlight--;
+                return;
+            }
+            adapt(error == null, apiError, latencyMs);
+
+            boolean retriable = apiError != null && apiError.isRetriable() && attempt < MAX_RETRIES;
+            if (retriable && !streamed.isEmpty()) {
+                // 流式中途失败：已经到手的条目不再重发
+                List<Item> remaining = new ArrayList<>();
+                for (Item item : batch) {
+                    if (!streamed.containsKey(item.id())) remaining.add(item);
+                }
+                if (remaining.isEmpty()) {
+                    retriable = false;
+                } else {
+                    batch = remaining;
+                }
+            }
+            if (retriable) {
+                Map<String, AICategorizer.CategoryResult> delivered = new HashMap<>(carried);
+                delivered.putAll(streamed);
+                if (apiError.isTruncated() && batch.size() > 1) {
+                    // 输出不够装：拆成两半分别重发，占用的并发额度由两半各自归还；已到手的结果跟着前一半走
+                    int mid = batch.size() / 2;
+                    inFlight++;
+                    scheduleRetry(batch.subList(0, mid), attempt + 1, delivered);
+                    scheduleRetry(batch.subList(mid, batch.size()), attempt + 1, Map.of());
+                } else {
+                    scheduleRetry(batch, attempt + 1, delivered);
+                }
+                return;
+            }
+            inFlight--;
+            pump();
+        }
+
+        // 流式先到的结果也要交给接收方写缓存，不能因为后半段失败就丢掉
+        Map<String, AICategorizer.CategoryResult> merged = new HashMap<>(carried);
+        merged.putAll(streamed);
+        if (error == null && results != null) merged.putAll(results);
+
+        List<String> ids = new ArrayList<>(carried.keySet());
+        int missing = 0;
+        for (Item item : batch) {
+            ids.add(item.id());
+            if (error == null && !merged.containsKey(item.id())) missing++;
+        }
+        AIMetrics.recordMissing(missing);
+        listener.onBatchDone(ids, merged.isEmpty() && error != null ? null : merged, error);
+    }
+
+    /**
+     * 指数退避 + 抖动；重试期间继续占用并发额度，避免限流时还往上加压
+     */
+    private void scheduleRetry(List<Item> batch, int attempt, Map<String, AICategorizer.CategoryResult> carried) {
+        long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (attempt - 1));
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        List<Item> copy = List.copyOf(batch);
+        AIMetrics.recordRetry(copy.size(), delay);
+        DISPATCHER.schedule(() -> send(copy, attempt, carried), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * AIMD：并发上限按成功/限流调整；批次大小按延迟与截断率调整
+     */
+    private void adapt(boolean success, AICategorizer.AIRequestException apiError, long latencyMs) {
+        if (success) {
+            latencyEwmaMs = latencyEwmaMs < 0 ? latencyMs : latencyEwmaMs * 0.7 + latencyMs * 0.3;
+            concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1);
+            if (latencyEwmaMs > TARGET_LATENCY_MS) {
+                batchTokens = Math.max(MIN_BATCH_TOKENS, batchTokens * 3 / 4);
+            } else if (latencyEwmaMs < TARGET_LATENCY_MS / 2) {
+                batchTokens = Math.min(MAX_BATCH_TOKENS, batchTokens + batchTokens / 10 + 1);
+            }
+            return;
+        }
+        if (apiError == null) return;
+        if (apiError.isRateLimited()) {
+            concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+        }
+        if (apiError.isTruncated()) {
+            batchTokens = Math.max(MIN_BATCH_TOKENS, batchTokens / 2);
+        }
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        while (ex instanceof CompletionException && ex.getCause() != null) ex = ex.getCause();
+        return ex;
+    }
+}
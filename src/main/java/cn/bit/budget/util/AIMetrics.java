@@ -0,0 +1,255 @@
+package cn.bit.budget.util;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * AI 分类链路的运行指标 (V1.0)
+ * <p>
+ * 以前唯一的信号是 System.err 和审查表里的黄色行。现在统一记录：
+ * <ul>
+ *     <li>每个批次（每次尝试）的延迟，给出 p50 / p95 / p99；</li>
+ *     <li>响应 usage 字段里的 prompt / completion token；</li>
+ *     <li>重试次数，以及失败分类：超时、HTTP 状态码、JSON 截断、缺失条目等；</li>
+ *     <li>请求合并省掉的调用（见 {@link SingleFlightCategorizer}）。</li>
+ * </ul>
+ * 设置页展示 {@link #toSummary()}；每条事件同时追加到工作目录的 ai_metrics.log（按大小滚动，保留 3 份），
+ * 便于离线分析后调整批次大小与并发。
+ * </p>
+ */
+public class AIMetrics {
+
+    /**
+     * 失败分类
+     */
+    public enum Failure {
+        TIMEOUT("超时"),
+        NETWORK("网络异常"),
+        HTTP_STATUS("HTTP 错误"),
+        TRUNCATED("JSON 截断"),
+        MALFORMED("响应格式异常"),
+        MISSING_KEY("缺失条目"),
+        CIRCUIT_OPEN("熔断跳过"),
+        OTHER("其他");
+
+        private final String label;
+
+        Failure(String label) { this.label = label; }
+
+        public String getLabel() { return label; }
+
+        /**
+         * 按异常归类；缺失条目不是异常，由调用方单独记录
+         */
+        public static Failure classify(Throwable error) {
+            if (error instanceof CircuitBreakerCategorizer.CircuitOpenException) return CIRCUIT_OPEN;
+            if (error instanceof AICategorizer.AIRequestException e) {
+                if (e.isTruncated()) return TRUNCATED;
+                if (e.getStatusCode() == -1) {
+                    return e.getCause() instanceof HttpTimeoutException ? TIMEOUT : NETWORK;
+                }
+                return e.getStatusCode() == 200 ? MALFORMED : HTTP_STATUS;
+            }
+            return error instanceof HttpTimeoutException ? TIMEOUT : OTHER;
+        }
+    }
+
+    private static final String LOG_FILE = "ai_metrics.log";
+    private static final long MAX_LOG_BYTES = 1024 * 1024;
+    private static final int MAX_LOG_FILES = 3;
+    // 百分位只看最近这么多次尝试，反映当前网络状况
+    private static final int LATENCY_WINDOW = 1024;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    // 日志写盘放到单独线程，不阻塞 HTTP 回调
+    private static final ExecutorService LOG_WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ai-metrics-log");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 以下状态均在类锁内访问
+    private static final long[] latencies = new long[LATENCY_WINDOW];
+    private static int latencyCount = 0;
+    private static int latencyNext = 0;
+    private static long attempts = 0;
+    private static long succeeded = 0;
+    private static long itemsRequested = 0;
+    private static long retries = 0;
+    private static long usageResponses = 0;
+    private static long promptTokens = 0;
+    private static long completionTokens = 0;
+    private static long circuitTrips = 0;
+    private static final EnumMap<Failure, Long> failures = new EnumMap<>(Failure.class);
+    private static final TreeMap<Integer, Long> statusCodes = new TreeMap<>();
+
+    private AIMetrics() {}
+
+    /**
+     * 记录一次批次请求（含重试的每一次尝试）
+     *
+     * @param attempt 第几次重试，首次为 0
+     * @param error   成功时为 null
+     */
+    public static void recordAttempt(int items, long latencyMs, int attempt, Throwable error) {
+        String outcome;
+        synchronized (AIMetrics.class) {
+            attempts++;
+            itemsRequested += items;
+            // 熔断时的快速失败没有真正发请求，不计入延迟
+            if (!(error instanceof CircuitBreakerCategorizer.CircuitOpenException)) {
+                latencies[latencyNext] = latencyMs;
+                latencyNext = (latencyNext + 1) % LATENCY_WINDOW;
+                latencyCount = Math.min(LATENCY_WINDOW, latencyCount + 1);
+            }
+            if (error == null) {
+                succeeded++;
+                outcome = "ok";
+            } else {
+                Failure failure = Failure.classify(error);
+                failures.merge(failure, 1L, Long::sum);
+                outcome = failure.name();
+                if (failure == Failure.HTTP_STATUS && error instanceof AICategorizer.AIRequestException e) {
+                    statusCodes.merge(e.getStatusCode(), 1L, Long::sum);
+                    outcome += ":" + e.getStatusCode();
+                }
+            }
+        }
+        log("batch items=" + items + " latency_ms=" + latencyMs + " attempt=" + attempt + " outcome=" + outcome);
+    }
+
+    public static void recordRetry(int items, long delayMs) {
+        synchronized (AIMetrics.class) {
+            retries++;
+        }
+        log("retry items=" + items + " delay_ms=" + delayMs);
+    }
+
+    /**
+     * 请求成功但结果里缺了部分条目
+     */
+    public static void recordMissing(int missing) {
+        if (missing <= 0) return;
+        synchronized (AIMetrics.class) {
+            failures.merge(Failure.MISSING_KEY, (long) missing, Long::sum);
+        }
+        log("missing items=" + missing);
+    }
+
+    /**
+     * 响应里的 usage 字段
+     */
+    public static void recordUsage(long prompt, long completion) {
+        synchronized (AIMetrics.class) {
+            usageResponses++;
+            promptTokens += prompt;
+            completionTokens += completion;
+        }
+        log("usage prompt_tokens=" + prompt + " completion_tokens=" + completion);
+    }
+
+    /**
+     * 熔断器打开（含探测失败后再次打开）
+     */
+    public static void recordCircuitTrip(String reason, long cooldownMs) {
+        synchronized (AIMetrics.class) {
+            circuitTrips++;
+        }
+        log("circuit_open reason=" + reason + " cooldown_ms=" + cooldownMs);
+    }
+
+    /**
+     * 最近窗口内的延迟百分位（毫秒），没有数据时返回 -1
+     */
+    public static synchronized long latencyPercentile(double p) {
+        if (latencyCount == 0) return -1;
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    public static synchronized long getRetries() { return retries; }
+
+    public static synchronized long getFailures(Failure failure) { return failures.getOrDefault(failure, 0L); }
+
+    public static synchronized String toSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("后端: ").append(AICategorizer.getDefault().getName()).append('\n');
+        sb.append(String.format("请求 %d 次（成功 %d），共 %d 条明细，重试 %d 次%n",
+                attempts, succeeded, itemsRequested, retries));
+        if (latencyCount > 0) {
+            sb.append(String.format("延迟（最近 %d 次）: p50 %d ms / p95 %d ms / p99 %d ms%n", latencyCount,
+                    latencyPercentile(50), latencyPercentile(95), latencyPercentile(99)));
+        }
+        if (usageResponses > 0) {
+            sb.append(String.format("Token: prompt %d / completion %d（平均每次 %d / %d）%n",
+                    promptTokens, completionTokens, promptTokens / usageResponses, completionTokens / usageResponses));
+        }
+        sb.append(String.format("估算 prompt: 每条 %.1f token（动态部分 %.1f）%n",
+                AIPromptBuilder.getTokensPerItem(), AIPromptBuilder.getPayloadTokensPerItem()));
+        if (failures.isEmpty()) {
+            sb.append("失败: 无\n");
+        } else {
+            StringJoiner joiner = new StringJoiner("，", "失败: ", "\n");
+            failures.forEach((f, n) -> joiner.add(f.getLabel() + " " + n));
+            sb.append(joiner);
+            if (!statusCodes.isEmpty()) sb.append("HTTP 状态码: ").append(statusCodes).append('\n');
+        }
+        CircuitBreakerCategorizer breaker = AICategorizer.getCircuitBreaker();
+        if (breaker != null) {
+            sb.append("熔断器: ").append(breaker.describe());
+            if (circuitTrips > 0) sb.append("（累计熔断 ").append(circuitTrips).append(" 次）");
+            sb.append('\n');
+        }
+        String singleFlight = AICategorizer.getSingleFlightStats();
+        if (singleFlight != null) sb.append("请求合并: ").append(singleFlight).append('\n');
+        return sb.toString();
+    }
+
+    public static synchronized void reset() {
+        latencyCount = 0;
+        latencyNext = 0;
+        attempts = succeeded = itemsRequested = retries = 0;
+        usageResponses = promptTokens = completionTokens = 0;
+        circuitTrips = 0;
+        failures.clear();
+        statusCodes.clear();
+    }
+
+    // ================== 滚动日志 ==================
+
+    private static void log(String event) {
+        String line = LocalDateTime.now().format(TIME_FORMAT) + ' ' + event + System.lineSeparator();
+        LOG_WRITER.execute(() -> {
+            try {
+                Path path = Paths.get(LOG_FILE);
+                if (Files.exists(path) && Files.size(path) > MAX_LOG_BYTES) roll(path);
+                Files.writeString(path, line, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println("写入 AI 指标日志失败: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * ai_metrics.log -> .1 -> .2 -> .3，最旧的丢弃
+     */
+    private static void roll(Path path) throws IOException {
+        for (int i = MAX_LOG_FILES - 1; i >= 1; i--) {
+            Path from = Paths.get(LOG_FILE + "." + i);
+            if (Files.exists(from)) {
+                Files.move(from, Paths.get(LOG_FILE + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(path, Paths.get(LOG_FILE + ".1"), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
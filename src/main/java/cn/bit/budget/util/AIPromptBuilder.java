@@ -0,0 +1,194 @@
+package cn.bit.budget.util;
+
+import com.google.gson.Gson;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI 分类 Prompt 构造器 (V1.0)
+ * <p>
+ * 以前每个批次都把整棵收支分类树、few-shot 示例重新 gson.toJson + String.format 一遍，请求里绝大部分是重复的样板。
+ * 现在拆成两段：
+ * <ul>
+ *     <li>静态前缀（system 消息）：任务说明 + 示例 + 分类体系 + 个性化指令。同一分类体系版本下逐字节相同，
+ *     只序列化一次并缓存，服务商的前缀缓存 (prefix caching) 可以命中；</li>
+ *     <li>动态部分（user 消息）：只放本批次的紧凑明细，unique_id 换成短编号，字段名压到一个字母。</li>
+ * </ul>
+ * 同时统计每条明细平均消耗的 token（估算），方便对比优化效果。
+ * </p>
+ */
+public class AIPromptBuilder {
+
+    private static final Gson gson = new Gson();
+
+    private static final String STATIC_INSTRUCTIONS =
+            "你是一个冷酷的 JSON 生成器。严禁输出任何思考过程（<think>）。严禁对结果进行任何解释。" +
+            "直接输出 JSON 字典，不要包含 Markdown 代码块。\n\n" +
+            "### 任务\n" +
+            "作为财务分类专家，请根据现有体系和用户偏好，为账单明细匹配最合适的分类。\n\n" +
+            "### 输入格式\n" +
+            "明细为 JSON 数组，每项：i=编号，d=交易描述，a=金额，t=收支类型（支/收）。\n\n" +
+            "### 示例\n" +
+            "// 场景1：匹配现有分类\n" +
+            "输入: [{\"i\":\"0\",\"d\":\"美团-村上一屋·日料\",\"a\":20.0,\"t\":\"支\"}]\n" +
+            "输出: {\"0\": {\"suggestion\": \"餐饮 - 三餐\", \"isNew\": false, \"fallback\": \"餐饮\"}}\n\n" +
+            "// 场景2：发现新分类（要求：名称极简，不要废话）\n" +
+            "输入: [{\"i\":\"1\",\"d\":\"北京鸿笙科技-标准洗\",\"a\":2.25,\"t\":\"支\"}]\n" +
+            "输出: {\"1\": {\"suggestion\": \"洗衣\", \"isNew\": true, \"fallback\": \"日常\"}}\n\n" +
+            "输入: [{\"i\":\"2\",\"d\":\"印之梦联营-自助打印\",\"a\":0.75,\"t\":\"支\"}]\n" +
+            "输出: {\"2\": {\"suggestion\": \"办公\", \"isNew\": true, \"fallback\": \"学习\"}}\n\n" +
+            "输入: [{\"i\":\"3\",\"d\":\"荣耀-鲜花卡\",\"a\":98.0,\"t\":\"支\"}]\n" +
+            "输出: {\"3\": {\"suggestion\": \"虚拟产品\", \"isNew\": true, \"fallback\": \"会员\"}}\n\n" +
+            "### 约束逻辑\n" +
+            "- 建议格式：优先建议 '一级分类 - 二级分类'。若当前确无合适的分类，需新建分类，仅建议一级分类名。\n" +
+            "- Fallback：若不允许新建分类，必须指定一个【现有】最接近的一级分类。\n\n" +
+            "### 输出要求\n" +
+            "- 严格返回 JSON 对象，Key 为明细编号 i。\n" +
+            "- **严禁**包含任何 Markdown 标签或额外的文字说明。\n" +
+            "- 不要输出 reason 字段，也不要输出任何分析文字。\n\n";
+
+    /**
+     * 构造好的一次请求
+     *
+     * @param systemPrompt    静态前缀，同一分类体系下逐字节相同
+     * @param userPrompt      本批次的紧凑明细
+     * @param idMap           短编号 -> 原 unique_id
+     * @param estimatedTokens 估算的 prompt token 总数
+     */
+    public record Prompt(String systemPrompt, String userPrompt, Map<String, String> idMap, int estimatedTokens) {}
+
+    /**
+     * 前缀缓存：分类体系内容相同则复用同一个字符串（equals 比较，分类树变动后自动重建）
+     */
+    private record PrefixKey(Map<String, List<String>> expenseTree, Map<String, List<String>> incomeTree,
+                             List<String> personalizations) {}
+
+    private static PrefixKey cachedKey;
+    private static String cachedPrefix;
+    private static int cachedPrefixTokens;
+
+    // 统计：累计请求数、明细数、前缀与明细部分的估算 token
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong items = new AtomicLong();
+    private static final AtomicLong prefixTokens = new AtomicLong();
+    private static final AtomicLong payloadTokens = new AtomicLong();
+
+    private AIPromptBuilder() {}
+
+    /**
+     * @param billItems 每项含 desc / amount / type_hint / unique_id（见 HelloController#prepareBillForAi）
+     */
+    public static Prompt build(List<Map<String, Object>> billItems,
+                               Map<String, List<String>> expenseTree,
+                               Map<String, List<String>> incomeTree,
+                               List<String> personalizations) {
+        String prefix;
+        int prefixCost;
+        synchronized (AIPromptBuilder.class) {
+            PrefixKey key = new PrefixKey(expenseTree, incomeTree, personalizations);
+            if (!key.equals(cachedKey)) {
+                // 存一份深拷贝作为比较基准，防止调用方之后修改原集合
+                cachedKey = new PrefixKey(deepCopy(expenseTree), deepCopy(incomeTree), List.copyOf(personalizations));
+                cachedPrefix = buildPrefix(expenseTree, incomeTree, personalizations);
+                cachedPrefixTokens = AIBatchScheduler.estimateTokens(cachedPrefix);
+            }
+            prefix = cachedPrefix;
+            prefixCost = cachedPrefixTokens;
+        }
+
+        Map<String, String> idMap = new LinkedHashMap<>();
+        List<Map<String, Object>> compact = new ArrayList<>(billItems.size());
+        for (Map<String, Object> item : billItems) {
+            String shortId = Integer.toString(idMap.size(), 36);
+            idMap.put(shortId, String.valueOf(item.get("unique_id")));
+            Map<String, Object> c = new LinkedHashMap<>();
+            c.put("i", shortId);
+            c.put("d", item.get("desc"));
+            c.put("a", item.get("amount"));
+            c.put("t", "收入".equals(item.get("type_hint")) ? "收" : "支");
+            compact.add(c);
+        }
+        String userPrompt = gson.toJson(compact);
+        int userCost = AIBatchScheduler.estimateTokens(userPrompt);
+
+        requests.incrementAndGet();
+        items.addAndGet(billItems.size());
+        prefixTokens.addAndGet(prefixCost);
+        payloadTokens.addAndGet(userCost);
+        return new Prompt(prefix, userPrompt, idMap, prefixCost + userCost);
+    }
+
+    /**
+     * 把以短编号为 key 的结果还原成以 unique_id 为 key
+     */
+    public static <T> Map<String, T> restoreIds(Map<String, T> byShortId, Map<String, String> idMap) {
+        Map<String, T> restored = new HashMap<>();
+        if (byShortId == null) return restored;
+        byShortId.forEach((shortId, value) -> {
+            String original = idMap.get(shortId);
+            // 模型偶尔会把原 unique_id 原样抄回来，也认
+            restored.put(original != null ? original : shortId, value);
+        });
+        return restored;
+    }
+
+    // ================== 统计 ==================
+
+    /**
+     * 平均每条明细的 prompt token（含分摊的前缀）
+     */
+    public static double getTokensPerItem() {
+        long n = items.get();
+        return n == 0 ? 0 : (double) (prefixTokens.get() + payloadTokens.get()) / n;
+    }
+
+    /**
+     * 平均每条明细的动态部分 token（前缀命中缓存时实际计费的主要部分）
+     */
+    public static double getPayloadTokensPerItem() {
+        long n = items.get();
+        return n == 0 ? 0 : (double) payloadTokens.get() / n;
+    }
+
+    public static long getRequestCount() { return requests.get(); }
+
+    public static long getItemCount() { return items.get(); }
+
+    // ================== 内部实现 ==================
+
+    private static String buildPrefix(Map<String, List<String>> expenseTree,
+                                      Map<String, List<String>> incomeTree,
+                                      List<String> personalizations) {
+        StringBuilder sb = new StringBuilder(STATIC_INSTRUCTIONS.length() + 2048);
+        sb.append(STATIC_INSTRUCTIONS);
+        sb.append("### 现有分类体系（一级: 二级/二级...）\n");
+        sb.append("支出:\n");
+        appendTree(sb, expenseTree);
+        sb.append("收入:\n");
+        appendTree(sb, incomeTree);
+        sb.append("\n### 用户个性化偏好\n");
+        if (personalizations.isEmpty()) {
+            sb.append("无\n");
+        } else {
+            for (String p : personalizations) sb.append("- ").append(p).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void appendTree(StringBuilder sb, Map<String, List<String>> tree) {
+        for (Map.Entry<String, List<String>> entry : tree.entrySet()) {
+            sb.append(entry.getKey());
+            if (!entry.getValue().isEmpty()) {
+                sb.append(": ").append(String.join("/", entry.getValue()));
+            }
+            sb.append('\n');
+        }
+    }
+
+    private static Map<String, List<String>> deepCopy(Map<String, List<String>> tree) {
+        Map<String, List<String>> copy = new LinkedHashMap<>();
+        tree.forEach((k, v) -> copy.put(k, List.copyOf(v)));
+        return copy;
+    }
+}
@@ -1,200 +1,380 @@
 package cn.bit.budget.util;
 
 import cn.bit.budget.model.Bill;
+import cn.bit.budget.util.format.StatementFormats;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * 账单导入工具类 (V5.1)
- * 修复了 isHeaderRow 缺失、日期解析异常及列索引偏移问题
+ * 账单导入工具类 (V6.0)
+ * 负责文件读取、切分与进度推送；表头识别与行解码交给 StatementFormat 插件（微信、支付宝、通用银行流水）
  */
 public class BillImportUtil {
 
+    // 超过该大小的 CSV 改走“内存映射 + 分块并行”解析
+    private static final long MAPPED_PARSE_THRESHOLD = 32L * 1024 * 1024;
+    // 单个分块的最小字节数，避免切得过碎导致线程调度开销大于解析本身
+    private static final int MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+    // 逐行模式下每攒够多少条账单推送一次
+    private static final int EMIT_BATCH_SIZE = 500;
+
     private BillImportUtil() {}
 
+    /**
+     * 导入回调：解析过程中分批推送账单、汇报进度，并支持中途取消。
+     * 回调在解析线程上执行，UI 更新需自行切回 FX 线程。
+     */
+    public interface ImportListener {
+        /**
+         * 一批新解析出的账单，批次之间保持文件原始行序
+         */
+        void onBills(List<Bill> batch);
+
+        /**
+         * 解析进度：CSV 以字节计，Excel 以行计
+         */
+        default void onProgress(long done, long total) {}
+
+        /**
+         * 返回 true 时解析会尽快停止，已推送的批次不会撤回
+         */
+        default boolean isCancelled() { return false; }
+    }
+
+    /**
+     * 同步解析：一次性返回全部账单
+     */
     public static List<Bill> parse(File file) {
-        String fileName = file.getName().toLowerCase();
-        if (fileName.endsWith(".xlsx") || fileName.endsWith(".xls")) {
-            return parseExcel(file);
-        } else if (fileName.endsWith(".csv")) {
-            // 依次尝试 GBK (微信/支付宝默认) 和 UTF-8
-            List<Bill> bills = parseCSV(file, "GBK");
-            if (bills.isEmpty()) {
-                bills = parseCSV(file, "UTF-8");
+        List<Bill> bills = new ArrayList<>();
+        parse(file, bills::addAll, new ImportReport(file.getName()));
+        return bills;
+    }
+
+    /**
+     * 流式解析：账单通过 listener 分批推送，行级统计与被拒行写入 report
+     *
+     * @return 推送的账单总数
+     */
+    public static int parse(File file, ImportListener listener, ImportReport report) {
+        report.startPhase(ImportReport.Phase.PARSE);
+        try {
+            String fileName = file.getName().toLowerCase();
+            if (fileName.endsWith(".xlsx") || fileName.endsWith(".xls")) {
+                return parseExcel(file, listener, report);
+            } else if (fileName.endsWith(".csv")) {
+                // 依次尝试 GBK (微信/支付宝默认) 和 UTF-8；GBK 一条都没解析出来才会重试，因此不会重复推送
+                int count = parseCSVAuto(file, "GBK", listener, report);
+                if (count == 0 && !listener.isCancelled()) {
+                    report.resetRows();
+                    count = parseCSVAuto(file, "UTF-8", listener, report);
+                }
+                return count;
             }
-            return bills;
+            return 0;
+        } finally {
+            report.endPhase(ImportReport.Phase.PARSE);
         }
-        return new ArrayList<>();
+    }
+
+    /**
+     * 根据文件大小选择解析模式：小文件逐行读取，大文件内存映射并行解析
+     */
+    private static int parseCSVAuto(File file, String charset, ImportListener listener, ImportReport report) {
+        long size = file.length();
+        if (size >= MAPPED_PARSE_THRESHOLD && size <= Integer.MAX_VALUE) {
+            return parseCSVMapped(file, charset, listener, report);
+        }
+        return parseCSV(file, charset, listener, report);
     }
 
     /**
      * CSV 解析核心：动态表头定位
      */
-    private static List<Bill> parseCSV(File file, String charset) {
-        List<Bill> importedBills = new ArrayList<>();
-        Map<String, Integer> colMap = new HashMap<>();
-        boolean isDataStarted = false;
+    private static int parseCSV(File file, String charset, ImportListener listener, ImportReport report) {
+        StatementFormats.Detected detected = null;
+        long totalBytes = file.length();
+        int emitted = 0;
 
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new FileInputStream(file), Charset.forName(charset)))) {
+        try (CountingInputStream counter = new CountingInputStream(new FileInputStream(file));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(counter, Charset.forName(charset)))) {
+            List<Bill> batch = new ArrayList<>();
             String line;
             while ((line = reader.readLine()) != null) {
+                if (listener.isCancelled()) return emitted;
                 line = line.trim();
                 if (line.isEmpty()) continue;
 
-                // 标准 CSV 分割，处理内容中包含逗号的情况
-                String[] columns = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-
-                if (!isDataStarted) {
-                    if (isHeaderRow(line)) {
-                        colMap = mapHeaders(columns);
-                        isDataStarted = true;
-                    }
+                if (detected == null) {
+                    detected = detectHeader(line, report);
                     continue;
                 }
 
-                if (line.startsWith("---")) continue; // 跳过统计分隔线
-                try {
-                    Bill bill = createBillFromRow(columns, colMap);
-                    if (bill != null) importedBills.add(bill);
-                } catch (Exception e) {
-                    System.err.println("跳过无效行: " + line + " | 原因: " + e.getMessage());
+                parseDataLine(line, detected, batch, report);
+                if (batch.size() >= EMIT_BATCH_SIZE) {
+                    emitted += batch.size();
+                    listener.onBills(batch);
+                    report.setBytesProcessed(counter.getCount());
+                    listener.onProgress(counter.getCount(), totalBytes);
+                    batch = new ArrayList<>();
                 }
             }
+            if (!batch.isEmpty()) {
+                emitted += batch.size();
+                listener.onBills(batch);
+            }
+            report.setBytesProcessed(counter.getCount());
+            listener.onProgress(totalBytes, totalBytes);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return importedBills;
+        return emitted;
     }
 
     /**
-     * Excel 解析核心：动态表头定位
+     * 大文件 CSV 解析：FileChannel.map 内存映射 + 按记录边界分块并行解析
+     * 1. 顺序扫描定位表头（表头前只有十几行说明，代价可忽略）
+     * 2. 对数据区做一次带引号状态的字节扫描，把切分点对齐到记录边界
+     * 3. 各分块独立解码、解析，再按分块顺序依次推送，保持原始行序
      */
-    private static List<Bill> parseExcel(File file) {
-        List<Bill> importedBills = new ArrayList<>();
-        Map<String, Integer> colMap = new HashMap<>();
-        boolean isDataStarted = false;
+    private static int parseCSVMapped(File file, String charset, ImportListener listener, ImportReport report) {
+        Charset cs = Charset.forName(charset);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int limit = buffer.limit();
 
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook workbook = new XSSFWorkbook(fis)) {
+            // 1. 定位表头
+            StatementFormats.Detected detected = null;
+            int pos = 0;
+            while (pos < limit && detected == null) {
+                int lineEnd = indexOfNewline(buffer, pos, limit);
+                detected = detectHeader(decode(buffer, pos, lineEnd, cs).toString().trim(), report);
+                pos = lineEnd + 1;
+            }
+            if (detected == null || pos >= limit) return 0;
 
-            Sheet sheet = workbook.getSheetAt(0);
-            for (Row row : sheet) {
-                String[] rowData = getRowContent(row);
-                if (rowData.length < 3) continue;
+            // 2. 切块：分块数取 CPU 数的若干倍以平衡负载，但每块不小于 MIN_CHUNK_SIZE
+            int dataSize = limit - pos;
+            int chunkCount = (int) Math.max(1, Math.min(
+                    Runtime.getRuntime().availableProcessors() * 4L, dataSize / MIN_CHUNK_SIZE));
+            int[] bounds = splitOnRecordBoundaries(buffer, pos, limit, chunkCount);
 
-                if (!isDataStarted) {
-                    // 检查这一行是否包含表头关键词
-                    if (isHeaderRow(Arrays.toString(rowData))) {
-                        colMap = mapHeaders(rowData);
-                        isDataStarted = true;
-                    }
-                    continue;
-                }
+            // 3. 所有分块并行解析，但按分块顺序等待并推送，保证行序不乱
+            final StatementFormats.Detected header = detected;
+            List<CompletableFuture<List<Bill>>> parts = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                final int chunk = i;
+                parts.add(CompletableFuture.supplyAsync(() ->
+                        parseChunk(buffer, bounds[chunk], bounds[chunk + 1], cs, header, listener, report)));
+            }
 
-                try {
-                    Bill bill = createBillFromRow(rowData, colMap);
-                    if (bill != null) importedBills.add(bill);
-                } catch (Exception e) {
-                    // 记录解析异常
+            int emitted = 0;
+            for (int i = 0; i < chunkCount; i++) {
+                if (listener.isCancelled()) {
+                    parts.forEach(f -> f.cancel(false));
+                    return emitted;
+                }
+                List<Bill> bills = parts.get(i).join();
+                if (!bills.isEmpty()) {
+                    emitted += bills.size();
+                    listener.onBills(bills);
                 }
+                report.setBytesProcessed(bounds[i + 1]);
+                listener.onProgress(bounds[i + 1], limit);
             }
+            return emitted;
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return importedBills;
+        return 0;
     }
 
-    // ================== 辅助方法 ==================
-
     /**
-     * 判断当前行是否为表头行
+     * 解析单个分块：整块一次性解码，再按“引号外的换行”切分记录
      */
-    private static boolean isHeaderRow(String line) {
-        return line.contains("时间") && line.contains("金额") &&
-                (line.contains("收/支") || line.contains("类型"));
+    private static List<Bill> parseChunk(ByteBuffer buffer, int start, int end, Charset cs,
+                                         StatementFormats.Detected header, ImportListener listener,
+                                         ImportReport report) {
+        List<Bill> bills = new ArrayList<>();
+        if (start >= end || listener.isCancelled()) return bills;
+
+        CharSequence text = decode(buffer, start, end, cs);
+        boolean inQuotes = false;
+        int recordStart = 0;
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : '\n';
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (c == '\n' && !inQuotes) {
+                String line = text.subSequence(recordStart, i).toString().trim();
+                if (!line.isEmpty()) parseDataLine(line, header, bills, report);
+                recordStart = i + 1;
+            }
+        }
+        return bills;
     }
 
     /**
-     * 智能映射列索引：排除包含“单号”干扰的列，精准抓取商户和描述
+     * 在数据区内寻找 chunkCount - 1 个切分点，每个切分点都落在“引号外换行”之后。
+     * GBK 与 UTF-8 的多字节字符都不会包含 0x0A / 0x22，因此可以直接按字节判断。
      */
-    private static Map<String, Integer> mapHeaders(String[] heads) {
-        Map<String, Integer> map = new HashMap<>();
-        for (int i = 0; i < heads.length; i++) {
-            String h = clean(heads[i]);
-            if (h.contains("时间")) map.put("time", i);
-            else if (h.contains("金额")) map.put("amount", i);
-            else if (h.contains("收/支") || h.equals("类型")) map.put("type", i);
-                // 排除掉包含“单号”的列，防止抓错描述
-            else if ((h.contains("商品") || h.contains("说明")) && !h.contains("单号")) {
-                map.put("goods", i);
-            }
-            else if ((h.contains("交易对方") || h.contains("商户")) && !h.contains("单号")) {
-                map.put("partner", i);
+    private static int[] splitOnRecordBoundaries(ByteBuffer buffer, int start, int end, int chunkCount) {
+        int[] bounds = new int[chunkCount + 1];
+        bounds[0] = start;
+        int idx = 1;
+        long span = end - start;
+        long target = start + span / chunkCount;
+        boolean inQuotes = false;
+
+        for (int i = start; i < end && idx < chunkCount; i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes && i + 1 >= target) {
+                bounds[idx++] = i + 1;
+                target = start + span * idx / chunkCount;
             }
         }
-        return map;
+        // 剩余切分点（文件尾部记录过长时可能出现）全部落在末尾，对应空分块
+        while (idx <= chunkCount) bounds[idx++] = end;
+        return bounds;
+    }
+
+    private static int indexOfNewline(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == '\n') return i;
+        }
+        return limit;
+    }
+
+    private static CharBuffer decode(ByteBuffer buffer, int start, int end, Charset cs) {
+        try {
+            return cs.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(buffer.slice(start, end - start));
+        } catch (CharacterCodingException e) {
+            // REPLACE 模式下不会抛出，保险起见按空内容处理
+            return CharBuffer.allocate(0);
+        }
     }
 
     /**
-     * 根据映射关系从数组中构建 Bill 对象
+     * 解析一行数据记录，失败的行记入导入报告后跳过（逐行模式与分块模式共用）
      */
-    private static Bill createBillFromRow(String[] cols, Map<String, Integer> colMap) throws Exception {
-        if (!colMap.containsKey("time") || !colMap.containsKey("amount") || !colMap.containsKey("type")) {
-            return null;
+    private static void parseDataLine(String line, StatementFormats.Detected header, List<Bill> out, ImportReport report) {
+        if (line.startsWith("---")) return; // 跳过统计分隔线
+        decodeRow(splitCsv(line), line, header, out, report);
+    }
+
+    private static void decodeRow(String[] cols, String rawLine, StatementFormats.Detected header,
+                                  List<Bill> out, ImportReport report) {
+        try {
+            Bill bill = header.format().decode(cols, header.mapping());
+            if (bill != null) {
+                out.add(bill);
+                report.recordAccepted();
+            } else {
+                report.recordRejected(ImportReport.RejectReason.NOT_A_BILL, "", rawLine);
+            }
+        } catch (RuntimeException e) {
+            report.recordRejected(ImportReport.RejectReason.classify(e), e.getMessage(), rawLine);
         }
+    }
 
-        String rawDate = clean(cols[colMap.get("time")]);
-        String rawAmount = clean(cols[colMap.get("amount")]).replace("¥", "").replace(",", "");
-        String rawType = clean(cols[colMap.get("type")]);
+    /**
+     * Excel 解析核心：动态表头定位
+     */
+    private static int parseExcel(File file, ImportListener listener, ImportReport report) {
+        StatementFormats.Detected detected = null;
+        int emitted = 0;
 
-        // 日期解析
-        LocalDate date = parseFlexibleDate(rawDate);
-        // 金额解析
-        double amount = Double.parseDouble(rawAmount);
-        // 收支归一化
-        String type = rawType.contains("收入") ? "收入" : "支出";
+        try (FileInputStream fis = new FileInputStream(file);
+             Workbook workbook = new XSSFWorkbook(fis)) {
 
-        String partner = colMap.containsKey("partner") ? clean(cols[colMap.get("partner")]) : "";
-        String goods = colMap.containsKey("goods") ? clean(cols[colMap.get("goods")]) : "";
-        String remark = (partner + "-" + goods).trim() + " (导入)";
+            Sheet sheet = workbook.getSheetAt(0);
+            int lastRow = Math.max(1, sheet.getLastRowNum());
+            List<Bill> batch = new ArrayList<>();
+            for (Row row : sheet) {
+                if (listener.isCancelled()) return emitted;
+                String[] rowData = getRowContent(row);
+                if (rowData.length < 3) continue;
 
-        return new Bill(UUID.randomUUID().toString(), amount, "未分类", null, date, type, remark, LocalDateTime.now());
+                if (detected == null) {
+                    // 检查这一行是否为已知格式的表头
+                    String headerLine = Arrays.toString(rowData);
+                    if (StatementFormats.looksLikeHeader(headerLine)) {
+                        detected = StatementFormats.detect(headerLine, rowData);
+                        if (detected != null) report.setFormatName(detected.format().getName());
+                    }
+                    continue;
+                }
+
+                decodeRow(rowData, String.join(",", rowData), detected, batch, report);
+                if (batch.size() >= EMIT_BATCH_SIZE) {
+                    emitted += batch.size();
+                    listener.onBills(batch);
+                    listener.onProgress(row.getRowNum(), lastRow);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                emitted += batch.size();
+                listener.onBills(batch);
+            }
+            report.setBytesProcessed(file.length());
+            listener.onProgress(lastRow, lastRow);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return emitted;
     }
 
+    // ================== 辅助方法 ==================
+
     /**
-     * 暴力日期解析器：兼容 - 和 / 以及各种精度
+     * 探测表头：先跑各格式廉价的 probe，命中后才切分并编译列映射
      */
-    private static LocalDate parseFlexibleDate(String raw) throws Exception {
-        String[] patterns = {
-                "yyyy-MM-dd HH:mm:ss", "yyyy/MM/dd HH:mm:ss",
-                "yyyy-MM-dd HH:mm", "yyyy/MM/dd HH:mm",
-                "yyyy-MM-dd", "yyyy/MM/dd"
-        };
-
-        for (String pattern : patterns) {
-            try {
-                if (pattern.length() > 10) {
-                    return LocalDateTime.parse(raw, DateTimeFormatter.ofPattern(pattern)).toLocalDate();
-                } else {
-                    return LocalDate.parse(raw, DateTimeFormatter.ofPattern(pattern));
-                }
-            } catch (Exception ignored) {}
-        }
-        throw new Exception("无法解析日期格式: " + raw);
+    private static StatementFormats.Detected detectHeader(String line, ImportReport report) {
+        if (!StatementFormats.looksLikeHeader(line)) return null;
+        StatementFormats.Detected detected = StatementFormats.detect(line, splitCsv(line));
+        if (detected != null) report.setFormatName(detected.format().getName());
+        return detected;
     }
 
-    private static String clean(String s) {
-        if (s == null) return "";
-        // 移除引号、制表符及前后空格
-        return s.replace("\"", "").replace("\t", "").trim();
+    /**
+     * 标准 CSV 分割：只在引号外的逗号处切分，单次线性扫描（替代回溯正则）
+     * 与旧正则一致，字段内的引号原样保留，由各格式解码时清理
+     */
+    static String[] splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        boolean inQuotes = false;
+        int start = 0;
+        for (int i = 0, len = line.length(); i < len; i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (c == ',' && !inQuotes) {
+                fields.add(line.substring(start, i));
+                start = i + 1;
+            }
+        }
+        fields.add(line.substring(start));
+        return fields.toArray(new String[0]);
     }
 
     private static String[] getRowContent(Row row) {
@@ -215,8 +395,41 @@ public class BillImportUtil {
                 if (DateUtil.isCellDateFormatted(cell)) {
                     return cell.getLocalDateTimeCellValue().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
                 }
-                return String.valueOf(cell.getNumericCellValue());
+                // 不用 String.valueOf：1e7 以上会变成 "1.2345678E7" 这样的科学计数法
+                return BigDecimal.valueOf(cell.getNumericCellValue()).toPlainString();
             default: return "";
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 统计已读取字节数的输入流，用于按字节汇报解析进度
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) { super(in); }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() { return count; }
+    }
+}
@@ -0,0 +1,269 @@
+package cn.bit.budget.util;
+
+import cn.bit.budget.model.Bill;
+
+import java.util.*;
+
+/**
+ * 历史账单的本地向量索引 (V1.0 - 哈希 n-gram + 余弦近邻)
+ * <p>
+ * 缓存只认精确匹配，“北京鸿笙科技-标准洗”与“鸿笙科技洗衣”这类新商户次次落空，只能去等 AI。
+ * 这里把历史备注按字符 1~3 元组做特征哈希，得到 {@link #DIM} 维的单位向量，
+ * 连续存放在一块 float[] 里（每行一条不同的 [备注, 分类]，重复备注只计数不重复存），
+ * 查询时整块扫描求余弦相似度，取 top-k 按相似度投票，几毫秒内给出建议，不联网。
+ * </p>
+ * 查询向量非零维只有几十个，扫描时只取这些维度做乘加，比逐维点积少一个数量级的计算。
+ * 收入与支出各一块索引。所有方法都加锁，可从 FX 线程和后台线程同时调用。
+ */
+public class BillVectorIndex {
+
+    public static final int DIM = 512;
+    public static final int DEFAULT_K = 5;
+    // 直接采用（不再问 AI）的门槛：最近邻足够像，且 top-k 的票大多投给同一个分类
+    public static final double CONFIDENT_SIMILARITY = 0.55;
+    public static final double CONFIDENT_VOTE_SHARE = 0.6;
+    // 低于该相似度、或不到最近邻相似度的 RELATIVE_CUTOFF 倍的邻居不参与投票
+    private static final double MIN_SIMILARITY = 0.2;
+    private static final double RELATIVE_CUTOFF = 0.75;
+    private static final String UNCATEGORIZED = "未分类";
+    // 按元组长度（下标）的权重
+    private static final float[] NGRAM_WEIGHTS = {0f, 0.25f, 1f, 1.5f};
+
+    /**
+     * 一个近邻
+     *
+     * @param count 这条 [备注, 分类] 在历史中出现的次数
+     */
+    public record Neighbor(String remark, String parent, String sub, double similarity, int count) {}
+
+    /**
+     * 近邻投票得出的建议
+     *
+     * @param similarity 投给该分类的邻居中最高的相似度
+     * @param voteShare  该分类得票占比，0~1
+     * @param nearest    投给该分类、最相似的那条历史账单
+     */
+    public record Suggestion(String parent, String sub, double similarity, double voteShare, Neighbor nearest) {
+        public String toSuggestion() {
+            return sub == null ? parent : parent + " - " + sub;
+        }
+
+        public boolean isConfident() {
+            return similarity >= CONFIDENT_SIMILARITY && voteShare >= CONFIDENT_VOTE_SHARE;
+        }
+    }
+
+    private static final Map<String, Arena> ARENAS = new HashMap<>();
+
+    private BillVectorIndex() {}
+
+    /**
+     * 用全部历史账单重建（启动时、批量删除后调用）
+     */
+    public static synchronized void rebuild(List<Bill> bills) {
+        ARENAS.clear();
+        for (Bill b : bills) update(b, 1);
+    }
+
+    public static synchronized void add(Bill bill) {
+        update(bill, 1);
+    }
+
+    public static synchronized void addAll(Collection<Bill> bills) {
+        for (Bill b : bills) update(b, 1);
+    }
+
+    public static synchronized void remove(Bill bill) {
+        update(bill, -1);
+    }
+
+    public static synchronized void removeAll(Collection<Bill> bills) {
+        for (Bill b : bills) update(b, -1);
+    }
+
+    public static synchronized int size() {
+        int n = 0;
+        for (Arena arena : ARENAS.values()) n += arena.size;
+        return n;
+    }
+
+    /**
+     * 余弦相似度最高的 k 条历史记录，按相似度降序
+     */
+    public static synchronized List<Neighbor> nearest(String remark, String type, int k) {
+        Arena arena = ARENAS.get(type);
+        if (arena == null || arena.size == 0 || k <= 0) return List.of();
+        float[] query = embed(remark);
+        if (query == null) return List.of();
+
+        // 只保留非零维
+        int nnz = 0;
+        int[] dims = new int[DIM];
+        float[] weights = new float[DIM];
+        for (int d = 0; d < DIM; d++) {
+            if (query[d] != 0f) {
+                dims[nnz] = d;
+                weights[nnz] = query[d];
+                nnz++;
+            }
+        }
+
+        int[] topRows = new int[k];
+        float[] topScores = new float[k];
+        Arrays.fill(topScores, Float.NEGATIVE_INFINITY);
+        float[] data = arena.vectors;
+        for (int row = 0, base = 0; row < arena.size; row++, base += DIM) {
+            float dot = 0f;
+            for (int j = 0; j < nnz; j++) dot += data[base + dims[j]] * weights[j];
+            if (dot <= topScores[k - 1]) continue;
+            // 插入排序维护 top-k
+            int pos = k - 1;
+            while (pos > 0 && topScores[pos - 1] < dot) {
+                topScores[pos] = topScores[pos - 1];
+                topRows[pos] = topRows[pos - 1];
+                pos--;
+            }
+            topScores[pos] = dot;
+            topRows[pos] = row;
+        }
+
+        List<Neighbor> result = new ArrayList<>(k);
+        for (int i = 0; i < k && topScores[i] != Float.NEGATIVE_INFINITY; i++) {
+            int row = topRows[i];
+            String[] label = arena.labels[row].split("\\|", -1);
+            result.add(new Neighbor(arena.remarks[row], label[0], label[1].isEmpty() ? null : label[1],
+                    topScores[i], arena.counts[row]));
+        }
+        return result;
+    }
+
+    /**
+     * top-k 近邻按相似度（出现次数取对数加权）投票
+     *
+     * @return 建议；没有足够相似的历史账单时返回 null
+     */
+    public static synchronized Suggestion suggest(String remark, String type) {
+        Map<String, Double> votes = new LinkedHashMap<>();
+        Map<String, Neighbor> best = new HashMap<>();
+        double total = 0;
+        List<Neighbor> neighbors = nearest(remark, type, DEFAULT_K);
+        if (neighbors.isEmpty()) return null;
+        double cutoff = Math.max(MIN_SIMILARITY, neighbors.get(0).similarity() * RELATIVE_CUTOFF);
+        for (Neighbor n : neighbors) {
+            if (n.similarity() < cutoff) break;
+            String label = n.parent() + "|" + (n.sub() == null ? "" : n.sub());
+            double weight = n.similarity() * (1 + Math.log(n.count()));
+            votes.merge(label, weight, Double::sum);
+            best.putIfAbsent(label, n);
+            total += weight;
+        }
+        if (votes.isEmpty()) return null;
+
+        String winner = Collections.max(votes.entrySet(), Map.Entry.comparingByValue()).getKey();
+        Neighbor nearest = best.get(winner);
+        return new Suggestion(nearest.parent(), nearest.sub(), nearest.similarity(), votes.get(winner) / total, nearest);
+    }
+
+    /**
+     * 只有足够可信时才返回，见 {@link Suggestion#isConfident()}
+     */
+    public static synchronized Suggestion suggestConfident(String remark, String type) {
+        Suggestion s = suggest(remark, type);
+        return s != null && s.isConfident() ? s : null;
+    }
+
+    // ================== 内部实现 ==================
+
+    private static void update(Bill bill, int delta) {
+        if (bill == null || bill.getType() == null || bill.getCategory() == null) return;
+        if (UNCATEGORIZED.equals(bill.getCategory())) return;
+        String remark = bill.getRemark() == null ? "" : bill.getRemark().replace("(导入)", "").trim();
+        String label = bill.getCategory() + "|" + (bill.getSubCategory() == null ? "" : bill.getSubCategory());
+        String key = remark + "\u0000" + label;
+
+        Arena arena = ARENAS.computeIfAbsent(bill.getType(), t -> new Arena());
+        Integer row = arena.rowByKey.get(key);
+        if (row != null) {
+            arena.counts[row] += delta;
+            if (arena.counts[row] <= 0) arena.removeRow(row);
+            return;
+        }
+        if (delta < 0) return; // 从未收录过
+        float[] vector = embed(remark);
+        if (vector == null) return;
+        arena.append(key, remark, label, vector);
+    }
+
+    /**
+     * 特征与 {@link LocalBillClassifier} 相同（字符 1~3 元组），按哈希落到 DIM 维并带符号。
+     * 单字几乎人人都有，只给很小的权重，相似度主要由二元、三元组决定；
+     * 结果做 L2 归一化，点积即余弦。没有任何特征时返回 null
+     */
+    static float[] embed(String remark) {
+        Map<String, Integer> features = LocalBillClassifier.extractFeatures(remark);
+        if (features.isEmpty()) return null;
+        float[] v = new float[DIM];
+        for (Map.Entry<String, Integer> f : features.entrySet()) {
+            int h = f.getKey().hashCode() * 0x9E3779B1;
+            int dim = (h >>> 8) % DIM;
+            float sign = (h & 1) == 0 ? 1f : -1f;
+            float weight = (float) ((1 + Math.log(f.getValue())) * NGRAM_WEIGHTS[Math.min(f.getKey().length(), 3)]);
+            v[dim] += sign * weight;
+        }
+        double norm = 0;
+        for (float x : v) norm += x * x;
+        if (norm == 0) return null;
+        float inv = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < DIM; i++) v[i] *= inv;
+        return v;
+    }
+
+    /**
+     * 一个收支类型的向量块：第 i 行占 vectors[i*DIM, (i+1)*DIM)
+     */
+    private static final class Arena {
+        float[] vectors = new float[64 * DIM];
+        String[] keys = new String[64];
+        String[] remarks = new String[64];
+        String[] labels = new String[64];
+        int[] counts = new int[64];
+        final Map<String, Integer> rowByKey = new HashMap<>();
+        int size;
+
+        void append(String key, String remark, String label, float[] vector) {
+            if (size == keys.length) {
+                int capacity = keys.length * 2;
+                vectors = Arrays.copyOf(vectors, capacity * DIM);
+                keys = Arrays.copyOf(keys, capacity);
+                remarks = Arrays.copyOf(remarks, capacity);
+                labels = Arrays.copyOf(labels, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            System.arraycopy(vector, 0, vectors, size * DIM, DIM);
+            keys[size] = key;
+            remarks[size] = remark;
+            labels[size] = label;
+            counts[size] = 1;
+            rowByKey.put(key, size);
+            size++;
+        }
+
+        /**
+         * 用最后一行填补空位，保持存储连续
+         */
+        void removeRow(int row) {
+            int last = size - 1;
+            rowByKey.remove(keys[row]);
+            if (row != last) {
+                System.arraycopy(vectors, last * DIM, vectors, row * DIM, DIM);
+                keys[row] = keys[last];
+                remarks[row] = remarks[last];
+                labels[row] = labels[last];
+                counts[row] = counts[last];
+                rowByKey.put(keys[row], row);
+            }
+            keys[last] = remarks[last] = labels[last] = null;
+            size--;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package cn.bit.budget.util;
+
+import cn.bit.budget.dao.DatabaseBootstrap;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * 分类结果缓存 (V1.0 - SQLite 持久化)
+ * <p>
+ * 位于 AICategorizer 之前：同一商户（如“美团”“滴滴”、食堂）分过一次类后，再次导入直接命中缓存，
+ * 不再发起网络请求。缓存两类结果：
+ * <ul>
+ *     <li>AI 结果：按 [规范化描述 + 收支类型 + 分类体系哈希] 存储，分类体系一变自动失效；</li>
+ *     <li>用户确认结果：来自“完成导入”时的最终分类，不随分类体系变化失效，优先级高于 AI 结果，
+ *     仅在对应分类被删除时清除；分类改名 / 合并时随之改写为新名称。</li>
+ * </ul>
+ * 超过容量时按最近使用时间淘汰 (LRU)。
+ * </p>
+ */
+public class CategorizationCache {
+
+    private static final String DB_URL = "jdbc:sqlite:budget_manager.db";
+    private static final int MAX_ENTRIES = 5000;
+
+    private static final String SOURCE_AI = "AI";
+    private static final String SOURCE_USER = "USER";
+    // 用户确认的结果与分类体系版本无关，统一用空串占位
+    private static final String ANY_TAXONOMY = "";
+
+    static {
+        DatabaseBootstrap.ensureSchema(); // category_cache 表
+    }
+
+    private CategorizationCache() {}
+
+    /**
+     * 规范化描述：去掉首尾空白、合并连续空白并统一小写，减少同一商户的不同写法
+     */
+    public static String normalize(String desc) {
+        if (desc == null) return "";
+        return desc.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 当前分类体系（收支分类树 + 个性化指令）的版本哈希；AI 结果只在同一版本下有效
+     */
+    public static String taxonomyHash() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(CategoryManager.getExpenseCategoryTree()).append('\n');
+        sb.append(CategoryManager.getIncomeCategoryTree()).append('\n');
+        sb.append(CategoryManager.getPersonalizations());
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(sb.toString().hashCode());
+        }
+    }
+
+    /**
+     * 批量查询缓存
+     *
+     * @param keys         key -> [描述, 收支类型]
+     * @param taxonomyHash 当前分类体系哈希
+     * @return 命中的 key -> 结果；用户确认的结果优先于 AI 结果
+     */
+    public static Map<String, AICategorizer.CategoryResult> lookup(Map<String, String[]> keys, String taxonomyHash) {
+        Map<String, AICategorizer.CategoryResult> hits = new HashMap<>();
+        if (keys.isEmpty()) return hits;
+
+        String sql = "SELECT source, suggestion, is_new, fallback FROM category_cache " +
+                "WHERE desc_key = ? AND type = ? AND taxonomy_hash IN (?, ?) " +
+                "ORDER BY CASE source WHEN 'USER' THEN 0 ELSE 1 END LIMIT 1";
+        String touchSql = "UPDATE category_cache SET last_used = ? WHERE desc_key = ? AND type = ? AND taxonomy_hash IN (?, ?)";
+        long now = System.currentTimeMillis();
+
+        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement query = conn.prepareStatement(sql);
+                 PreparedStatement touch = conn.prepareStatement(touchSql)) {
+                for (Map.Entry<String, String[]> entry : keys.entrySet()) {
+                    String descKey = normalize(entry.getValue()[0]);
+                    String type = entry.getValue()[1];
+                    query.setString(1, descKey);
+                    query.setString(2, type);
+                    query.setString(3, taxonomyHash);
+                    query.setString(4, ANY_TAXONOMY);
+                    try (ResultSet rs = query.executeQuery()) {
+                        if (!rs.next()) continue;
+                        AICategorizer.CategoryResult result = new AICategorizer.CategoryResult();
+                        result.suggestion = rs.getString("suggestion");
+                        result.isNew = rs.getInt("is_new") != 0;
+                        result.fallback = rs.getString("fallback");
+                        result.reason = SOURCE_USER.equals(rs.getString("source")) ? "来自已确认的历史分类" : "来自缓存";
+                        hits.put(entry.getKey(), result);
+                    }
+                    touch.setLong(1, now);
+                    touch.setString(2, descKey);
+                    touch.setString(3, type);
+                    touch.setString(4, taxonomyHash);
+                    touch.setString(5, ANY_TAXONOMY);
+                    touch.addBatch();
+                }
+                touch.executeBatch();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            // 缓存不可用不影响导入，全部当作未命中
+            System.err.println("读取分类缓存失败: " + e.getMessage());
+            hits.clear();
+        }
+        return hits;
+    }
+
+    /**
+     * 保存 AI 返回的结果
+     *
+     * @param keys    key -> [描述, 收支类型]，只保存其中出现的 key
+     * @param results AI 返回的 key -> 结果
+     */
+    public static void putAiResults(Map<String, String[]> keys, Map<String, AICategorizer.CategoryResult> results,
+                                    String taxonomyHash) {
+        List<Object[]> rows = new ArrayList<>();
+        results.forEach((key, res) -> {
+            String[] descAndType = keys.get(key);
+            if (descAndType == null || res == null || res.suggestion == null) return;
+            String suggestion = res.suggestion.trim();
+            String[] parts = suggestion.split(" - ", 2);
+            rows.add(new Object[]{normalize(descAndType[0]), descAndType[1], taxonomyHash, SOURCE_AI,
+                    parts[0].trim(), parts.length > 1 ? parts[1].trim() : null, suggestion, res.isNew, res.fallback});
+        });
+        upsert(rows);
+    }
+
+    /**
+     * 保存用户在审查界面最终确认的分类，每项为 [描述, 收支类型, 一级分类, 二级分类(可为 null)]
+     */
+    public static void putApproved(List<String[]> approved) {
+        List<Object[]> rows = new ArrayList<>(approved.size());
+        for (String[] a : approved) {
+            String suggestion = a[3] == null ? a[2] : a[2] + " - " + a[3];
+            rows.add(new Object[]{normalize(a[0]), a[1], ANY_TAXONOMY, SOURCE_USER, a[2], a[3], suggestion, false, a[2]});
+        }
+        upsert(rows);
+    }
+
+    private static void upsert(List<Object[]> rows) {
+        if (rows.isEmpty()) return;
+        String sql = "INSERT OR REPLACE INTO category_cache " +
+                "(desc_key, type, taxonomy_hash, source, parent, sub, suggestion, is_new, fallback, last_used) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        long now = System.currentTimeMillis();
+
+        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (Object[] row : rows) {
+                    for (int i = 0; i < 7; i++) pstmt.setString(i + 1, (String) row[i]);
+                    pstmt.setInt(8, (Boolean) row[7] ? 1 : 0);
+                    pstmt.setString(9, (String) row[8]);
+                    pstmt.setLong(10, now);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            evictOverflow(conn);
+            conn.commit();
+        } catch (SQLException e) {
+            System.err.println("写入分类缓存失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * LRU 淘汰：超出容量的部分按最近使用时间从旧到新删除
+     */
+    private static void evictOverflow(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("""
+                DELETE FROM category_cache WHERE rowid IN (
+                    SELECT rowid FROM category_cache ORDER BY last_used ASC
+                    LIMIT MAX(0, (SELECT COUNT(*) FROM category_cache) - ?)
+                )
+                """)) {
+            pstmt.setInt(1, MAX_ENTRIES);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 一级分类被删除：清除所有指向它的缓存（包括以它为兜底的 AI 结果）
+     */
+    public static void invalidateParent(String parentName) {
+        execute("DELETE FROM category_cache WHERE parent = ? OR fallback = ?", parentName, parentName);
+    }
+
+    /**
+     * 二级分类被删除：清除指向该二级分类的缓存
+     */
+    public static void invalidateChild(String parentName, String childName) {
+        execute("DELETE FROM category_cache WHERE (parent = ? AND sub = ?) OR (parent = ? AND sub IS NULL AND source = 'AI')",
+                parentName, childName, childName);
+    }
+
+    /**
+     * 一级分类改名或并入另一个一级分类：把指向旧名称的缓存改写为新名称。
+     * 由 CategoryManager 在自己的事务里调用，与账单改挂同时提交
+     */
+    static void renameParent(Connection conn, String from, String to) throws SQLException {
+        try (PreparedStatement parent = conn.prepareStatement(
+                "UPDATE category_cache SET parent = ?, suggestion = ? || substr(suggestion, length(?) + 1) WHERE parent = ?");
+             PreparedStatement fallback = conn.prepareStatement(
+                     "UPDATE category_cache SET fallback = ? WHERE fallback = ?")) {
+            parent.setString(1, to);
+            parent.setString(2, to);
+            parent.setString(3, from);
+            parent.setString(4, from);
+            parent.executeUpdate();
+            fallback.setString(1, to);
+            fallback.setString(2, from);
+            fallback.executeUpdate();
+        }
+    }
+
+    /**
+     * 二级分类改名或并入同一一级下的另一个二级分类，规则同 {@link #invalidateChild(String, String)} 的匹配范围
+     */
+    static void renameChild(Connection conn, String parentName, String from, String to) throws SQLException {
+        try (PreparedStatement sub = conn.prepareStatement(
+                "UPDATE category_cache SET sub = ?, suggestion = parent || ' - ' || ? WHERE parent = ? AND sub = ?");
+             PreparedStatement bare = conn.prepareStatement(
+                     "UPDATE category_cache SET parent = ?, suggestion = ? WHERE parent = ? AND sub IS NULL AND source = 'AI'")) {
+            sub.setString(1, to);
+            sub.setString(2, to);
+            sub.setString(3, parentName);
+            sub.setString(4, from);
+            sub.executeUpdate();
+            bare.setString(1, to);
+            bare.setString(2, to);
+            bare.setString(3, from);
+            bare.executeUpdate();
+        }
+    }
+
+    public static void clear() {
+        execute("DELETE FROM category_cache");
+    }
+
+    private static void execute(String sql, String... args) {
+        try (Connection conn = DriverManager.getConnection(DB_URL);
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) pstmt.setString(i + 1, args[i]);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package cn.bit.budget.util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * 分类后端接口
+ * <p>
+ * 把“给一批明细出分类建议”抽象出来，导入流程与调度器只依赖这个接口。
+ * 现有实现：远程大模型 {@link RemoteLlmCategorizer}、本地规则 + 贝叶斯 {@link LocalCategorizer}、
+ * 确定性假实现 {@link FakeCategorizer}。具体用哪个由 {@link AICategorizer#getDefault()} 按系统属性选择。
+ * </p>
+ */
+public interface Categorizer {
+
+    /**
+     * 后端名称，用于日志与设置界面展示
+     */
+    String getName();
+
+    /**
+     * 为一批明细给出分类建议
+     *
+     * @param billItems        每项含 desc / amount / type_hint / unique_id
+     * @param expenseTree      支出分类树
+     * @param incomeTree       收入分类树
+     * @param personalizations 用户个性化指令
+     * @param onEntry          单条结果先行到达时的回调（仅流式后端会调用），可为 null
+     * @return unique_id -> 结果；没有把握的条目可以缺席。失败时以 {@link AICategorizer.AIRequestException} 结束
+     */
+    CompletableFuture<Map<String, AICategorizer.CategoryResult>> categorize(
+            List<Map<String, Object>> billItems,
+            Map<String, List<String>> expenseTree,
+            Map<String, List<String>> incomeTree,
+            List<String> personalizations,
+            BiConsumer<String, AICategorizer.CategoryResult> onEntry);
+}
@@ -1,110 +1,220 @@
 package cn.bit.budget.util;
 
+import cn.bit.budget.dao.DatabaseBootstrap;
+
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
- * 分类管理器 (V3.0 - SQLite 驱动版)
+ * 分类管理器 (V3.6 - 变更事件版)
  * 核心逻辑：DB 存储 + 内存缓存。支持级联删除和事务一致性。
+ * V3.3：缓存改为 volatile 不可变快照，写时复制；AI 调度、缓存哈希等后台线程可以无锁读取。
+ * V3.4：快照内维护 二级 -> 一级 反向索引与每个一级的 LinkedHashSet，反查与判重均为 O(1)，同名二级显式消歧。
+ * V3.5：内置分类移到资源文件，由 {@link DefaultTaxonomy} 解析一次；内置 / 自定义判断直接查其索引。
+ * V3.6：每次修改派发带版本号的 {@link CategoryChange} 事件，UI 通过 {@link ObservableTaxonomy} 原地增量更新。
+ * V3.7：分类表改为整数主键，账单只存分类 id；改名只更新一行，合并按 id 批量改挂。
+ * 库里 hidden = 1 的行是只被导入账单引用的分类，不进入缓存，手动添加同名分类时重新启用。
  */
 public class CategoryManager {
 
-    private static final String DB_URL = "jdbc:sqlite:budget_manager.db";
+    private static final String DB_URL = "jdbc:sqlite:budget_manager.db?foreign_keys=on";
 
-    // 内存缓存：保持 UI 的毫秒级响应
-    private static final Map<String, List<String>> CATEGORY_MAP = new LinkedHashMap<>();
-    private static final Map<String, String> EMOJI_MAP = new HashMap<>();
-    private static final Map<String, String> CATEGORY_TYPE_MAP = new HashMap<>();
+    /**
+     * 内存缓存的不可变快照：保持 UI 的毫秒级响应，同时可被 AI 后台线程安全读取
+     * <p>
+     * 读方法只读一次 volatile 引用，不加锁，也不会看到写了一半的状态；写方法在类锁内
+     * 复制一份、修改副本、写库后整体替换（copy-on-write）。快照里的集合全部不可修改，
+     * 调用方拿到的列表不会在遍历途中被 FX 线程改掉，也无法反过来改坏缓存。
+     * </p>
+     */
+    private record Snapshot(Map<String, List<String>> children,     // 一级 -> 二级（有序）
+                            Map<String, Set<String>> childSets,     // 同上，LinkedHashSet 版，O(1) 判重
+                            Map<String, List<String>> parentsByChild, // 二级 -> 所属一级（反向索引，可能多个）
+                            Map<String, String> emojis,
+                            Map<String, String> types,              // 一级 -> 收入/支出（有序）
+                            Set<String> incomes,
+                            Set<String> expenses,
+                            Map<String, List<String>> incomeTree,
+                            Map<String, List<String>> expenseTree,
+                            long version) {                         // 最近一次变更事件的版本号
+        static final Snapshot EMPTY = new Builder().build(0);
+    }
 
-    // 个性化指令依然保留为轻量级文本存储
-    private static final String PERSONALIZATION_FILE = "user_personalization.txt";
-    private static final List<String> PERSONALIZATIONS = new ArrayList<>();
+    /**
+     * 快照的可变副本，只在写锁内使用
+     */
+    private static final class Builder {
+        final Map<String, Set<String>> children = new LinkedHashMap<>();
+        final Map<String, String> emojis = new HashMap<>();
+        final Map<String, String> types = new LinkedHashMap<>();
 
-    static {
-        initDatabase();          // 初始化数据库表
-        initDefaultCategories(); // 注入程序内置的基础分类
-        loadFromDb();            // 从数据库加载用户自定义分类
-        loadPersonalizations();  // 加载个性化指令
+        Builder() {}
+
+        Builder(Snapshot base) {
+            base.childSets().forEach((parent, subs) -> children.put(parent, new LinkedHashSet<>(subs)));
+            emojis.putAll(base.emojis());
+            types.putAll(base.types());
+        }
+
+        Snapshot build(long version) {
+            Map<String, List<String>> frozen = new LinkedHashMap<>();
+            Map<String, Set<String>> frozenSets = new LinkedHashMap<>();
+            Map<String, List<String>> parentsByChild = new HashMap<>();
+            children.forEach((parent, subs) -> {
+                frozen.put(parent, List.copyOf(subs));
+                frozenSets.put(parent, Collections.unmodifiableSet(new LinkedHashSet<>(subs)));
+                for (String sub : subs) parentsByChild.computeIfAbsent(sub, k -> new ArrayList<>(1)).add(parent);
+            });
+            parentsByChild.replaceAll((sub, parents) -> List.copyOf(parents));
+            Set<String> incomes = new LinkedHashSet<>();
+            Set<String> expenses = new LinkedHashSet<>();
+            Map<String, List<String>> incomeTree = new LinkedHashMap<>();
+            Map<String, List<String>> expenseTree = new LinkedHashMap<>();
+            types.forEach((parent, type) -> {
+                List<String> subs = frozen.getOrDefault(parent, List.of());
+                if ("收入".equals(type)) {
+                    incomes.add(parent);
+                    incomeTree.put(parent, subs);
+                } else if ("支出".equals(type)) {
+                    expenses.add(parent);
+                    expenseTree.put(parent, subs);
+                }
+            });
+            return new Snapshot(Collections.unmodifiableMap(frozen),
+                    Collections.unmodifiableMap(frozenSets),
+                    Collections.unmodifiableMap(parentsByChild),
+                    Collections.unmodifiableMap(new HashMap<>(emojis)),
+                    Collections.unmodifiableMap(new LinkedHashMap<>(types)),
+                    Collections.unmodifiableSet(incomes),
+                    Collections.unmodifiableSet(expenses),
+                    Collections.unmodifiableMap(incomeTree),
+                    Collections.unmodifiableMap(expenseTree),
+                    version);
+        }
     }
 
-    private static void initDatabase() {
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement()) {
-            // 1. 一级分类表
-            stmt.execute("""
-                CREATE TABLE IF NOT EXISTS categories (
-                    name TEXT PRIMARY KEY,
-                    type TEXT NOT NULL,
-                    emoji TEXT
-                );
-            """);
-            // 2. 二级分类表
-            stmt.execute("""
-                CREATE TABLE IF NOT EXISTS sub_categories (
-                    name TEXT NOT NULL,
-                    parent_name TEXT NOT NULL,
-                    emoji TEXT,
-                    PRIMARY KEY (name, parent_name),
-                    FOREIGN KEY (parent_name) REFERENCES categories(name) ON DELETE CASCADE
-                );
-            """);
-        } catch (SQLException e) {
-            e.printStackTrace();
+    /**
+     * 分类体系的一次变更
+     * <p>
+     * 每个事件有递增的版本号，订阅方据此发现漏掉的事件（版本不连续时应整体重新读取）。
+     * child 为 null 表示一级分类本身的变化；RENAMED 时 parent / child 为新名称，previousName 为旧名称；
+     * TYPE_CHANGED 表示已有一级分类换了收支类型，type 为新类型。
+     * </p>
+     *
+     * @param type 所属一级分类的收支类型
+     */
+    public record CategoryChange(long version, Kind kind, String type, String parent, String child, String previousName) {
+
+        public enum Kind { ADDED, REMOVED, RENAMED, TYPE_CHANGED }
+
+        public boolean isChildLevel() {
+            return child != null;
+        }
+
+        /**
+         * 变更涉及的分类名称：二级事件为二级名称，否则为一级名称
+         */
+        public String name() {
+            return child != null ? child : parent;
         }
+
+        CategoryChange withVersion(long newVersion) {
+            return new CategoryChange(newVersion, kind, type, parent, child, previousName);
+        }
+    }
+
+    private static final List<Consumer<CategoryChange>> LISTENERS = new CopyOnWriteArrayList<>();
+    // 已发布、尚未派发的事件（入队在类锁内，保证按版本号排序）
+    private static final Queue<CategoryChange> PENDING = new ConcurrentLinkedQueue<>();
+    private static final ReentrantLock DISPATCH_LOCK = new ReentrantLock();
+
+    // 必须声明在静态块之前，否则静态块加载的结果会被这里的初始值覆盖
+    private static volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    // 个性化指令依然保留为轻量级文本存储，同样整体替换为不可变列表
+    private static final String PERSONALIZATION_FILE = "user_personalization.txt";
+    private static volatile List<String> personalizations = List.of();
+
+    static {
+        // 表结构统一建好；内置分类只在种子版本变化时写库，否则整个跳过
+        // 种子版本取内置分类资源的内容哈希，改了 default-categories.json 老用户的库会自动更新
+        DatabaseBootstrap.applySeed(DefaultTaxonomy.getVersion(), CategoryManager::seedDefaultCategories);
+        loadFromDb();            // 从数据库加载全部分类（内置 + 用户自定义）
+        loadPersonalizations();  // 加载个性化指令
     }
 
-    private static void loadFromDb() {
+    private static synchronized void loadFromDb() {
+        Builder next = new Builder();
         try (Connection conn = DriverManager.getConnection(DB_URL)) {
             // 加载一级分类
-            try (ResultSet rs = conn.createStatement().executeQuery("SELECT * FROM categories")) {
+            try (ResultSet rs = conn.createStatement().executeQuery(
+                    "SELECT name, type, emoji FROM categories WHERE hidden = 0 ORDER BY id")) {
                 while (rs.next()) {
                     String name = rs.getString("name");
                     String type = rs.getString("type");
                     String emoji = rs.getString("emoji");
 
-                    CATEGORY_MAP.putIfAbsent(name, new ArrayList<>());
-                    CATEGORY_TYPE_MAP.put(name, type);
-                    if (emoji != null && !EMOJI_MAP.containsKey(name)) {
-                        EMOJI_MAP.put(name, emoji);
-                    }
+                    next.children.putIfAbsent(name, new LinkedHashSet<>());
+                    next.types.put(name, type);
+                    if (emoji != null) next.emojis.putIfAbsent(name, emoji);
                 }
             }
             // 加载二级分类
-            try (ResultSet rs = conn.createStatement().executeQuery("SELECT * FROM sub_categories")) {
+            try (ResultSet rs = conn.createStatement().executeQuery("""
+                    SELECT s.name, c.name AS parent_name, s.emoji
+                    FROM sub_categories s JOIN categories c ON c.id = s.parent_id
+                    WHERE s.hidden = 0 AND c.hidden = 0 ORDER BY s.id
+                    """)) {
                 while (rs.next()) {
                     String name = rs.getString("name");
                     String parent = rs.getString("parent_name");
                     String emoji = rs.getString("emoji");
 
-                    if (CATEGORY_MAP.containsKey(parent)) {
-                        List<String> children = CATEGORY_MAP.get(parent);
-                        if (!children.contains(name)) children.add(name);
-                        if (emoji != null && !EMOJI_MAP.containsKey(name)) {
-                            EMOJI_MAP.put(name, emoji);
-                        }
+                    Set<String> children = next.children.get(parent);
+                    if (children != null) {
+                        children.add(name);
+                        if (emoji != null) next.emojis.putIfAbsent(name, emoji);
                     }
                 }
             }
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        publish(next);
     }
 
-    // --- 修改操作：同步更新 DB 和内存 ---
+    // --- 修改操作：同步更新 DB 和内存（类锁内复制快照，改完整体发布） ---
     public static void addCustomParentCategory(String parentName, String type) {
+        try {
+            addCustomParentCategoryLocked(parentName, type);
+        } finally {
+            dispatchPending();
+        }
+    }
+
+    private static synchronized void addCustomParentCategoryLocked(String parentName, String type) {
         // 1. 先检查是否真的不存在（决定是否写库）
-        boolean isNew = !CATEGORY_MAP.containsKey(parentName);
+        Builder next = new Builder(snapshot);
+        boolean isNew = !next.children.containsKey(parentName);
+        String oldType = next.types.get(parentName);
 
         // 2. 无论是否新分类，都更新/同步内存中的类型映射
-        CATEGORY_MAP.putIfAbsent(parentName, new ArrayList<>());
-        CATEGORY_TYPE_MAP.put(parentName, type);
+        next.children.putIfAbsent(parentName, new LinkedHashSet<>());
+        next.types.put(parentName, type);
 
         // 3. 只有真正的新分类才执行 SQL 插入
         if (isNew) {
             String emoji = "\uD83C\uDFF7"; // 默认标签 🏷
-            String sql = "INSERT OR IGNORE INTO categories(name, type, emoji) VALUES (?, ?, ?)";
+            // 库里可能已有同名的隐藏分类（导入账单时补建的），直接启用
+            String sql = "INSERT INTO categories(name, type, emoji) VALUES (?, ?, ?) "
+                    + "ON CONFLICT(name) DO UPDATE SET hidden = 0, type = excluded.type, "
+                    + "emoji = COALESCE(categories.emoji, excluded.emoji)";
 
             try (Connection conn = DriverManager.getConnection(DB_URL);
                  PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -114,12 +224,13 @@ public class CategoryManager {
                 pstmt.executeUpdate();
 
                 // 同步更新 Emoji 缓存
-                if (!EMOJI_MAP.containsKey(parentName)) {
-                    EMOJI_MAP.put(parentName, emoji);
-                }
+                next.emojis.putIfAbsent(parentName, emoji);
             } catch (SQLException e) {
                 e.printStackTrace();
             }
+            publish(next, change(CategoryChange.Kind.ADDED, type, parentName, null, null));
+        } else if (!Objects.equals(oldType, type)) {
+            publish(next, change(CategoryChange.Kind.TYPE_CHANGED, type, parentName, null, null));
         }
     }
 
@@ -127,133 +238,460 @@ public class CategoryManager {
      * 核心修改：支持指定 Emoji 的二级分类添加
      */
     public static void addCustomChildCategory(String parent, String childName, String emoji) {
-        if (CATEGORY_MAP.containsKey(parent)) {
-            List<String> children = CATEGORY_MAP.get(parent);
-            if (!children.contains(childName)) {
-                // 如果没传 emoji，使用默认的标签图标
-                String finalEmoji = (emoji == null) ? "\uD83C\uDFF7" : emoji;
-                String sql = "INSERT OR IGNORE INTO sub_categories(name, parent_name, emoji) VALUES (?, ?, ?)";
-
-                try (Connection conn = DriverManager.getConnection(DB_URL);
-                     PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                    pstmt.setString(1, childName);
-                    pstmt.setString(2, parent);
-                    pstmt.setString(3, finalEmoji);
-                    pstmt.executeUpdate();
-
-                    // 同步更新内存
-                    children.add(childName);
-                    EMOJI_MAP.put(childName, finalEmoji);
-                } catch (SQLException e) { e.printStackTrace(); }
-            }
+        try {
+            addCustomChildCategoryLocked(parent, childName, emoji);
+        } finally {
+            dispatchPending();
         }
     }
 
+    private static synchronized void addCustomChildCategoryLocked(String parent, String childName, String emoji) {
+        Set<String> current = snapshot.childSets().get(parent);
+        if (current == null || current.contains(childName)) return;
+
+        // 如果没传 emoji，使用默认的标签图标
+        String finalEmoji = (emoji == null) ? "\uD83C\uDFF7" : emoji;
+        String sql = "INSERT INTO sub_categories(parent_id, name, emoji) SELECT id, ?, ? FROM categories WHERE name = ? "
+                + "ON CONFLICT(parent_id, name) DO UPDATE SET hidden = 0, "
+                + "emoji = COALESCE(sub_categories.emoji, excluded.emoji)";
+
+        try (Connection conn = DriverManager.getConnection(DB_URL);
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, childName);
+            pstmt.setString(2, finalEmoji);
+            pstmt.setString(3, parent);
+            pstmt.executeUpdate();
+
+            // 同步更新内存
+            Builder next = new Builder(snapshot);
+            next.children.get(parent).add(childName);
+            next.emojis.put(childName, finalEmoji);
+            publish(next, change(CategoryChange.Kind.ADDED, next.types.get(parent), parent, childName, null));
+        } catch (SQLException e) { e.printStackTrace(); }
+    }
+
     // 保留原有的单参数方法，方便 UI 调用
     public static void addCustomChildCategory(String parent, String childName) {
         addCustomChildCategory(parent, childName, null);
     }
 
     public static boolean deleteParentCategory(String parentName) {
-        if (isCustomCategory(parentName)) {
-            String sql = "DELETE FROM categories WHERE name = ?";
-            try (Connection conn = DriverManager.getConnection(DB_URL);
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setString(1, parentName);
-                pstmt.executeUpdate();
-
-                // 内存同步
-                CATEGORY_MAP.remove(parentName);
-                CATEGORY_TYPE_MAP.remove(parentName);
-                return true;
-            } catch (SQLException e) { e.printStackTrace(); }
+        try {
+            return deleteParentCategoryLocked(parentName);
+        } finally {
+            dispatchPending();
         }
-        return false;
+    }
+
+    private static synchronized boolean deleteParentCategoryLocked(String parentName) {
+        if (!isCustomCategory(parentName)) return false;
+        // 外键级联会同时删除其二级分类和账单；指向它的关键词规则也要删，
+        // 否则规则引擎会继续把新账单分进来，插入触发器又把它作为隐藏分类重建
+        int deleted = inTransaction(conn -> {
+            update(conn, "DELETE FROM category_rules WHERE parent = ?", parentName);
+            return update(conn, "DELETE FROM categories WHERE name = ?", parentName);
+        });
+        if (deleted < 0) return false;
+
+        // 内存同步
+        Builder next = new Builder(snapshot);
+        next.children.remove(parentName);
+        String type = next.types.remove(parentName);
+        publish(next, change(CategoryChange.Kind.REMOVED, type, parentName, null, null));
+        CategorizationCache.invalidateParent(parentName);
+        KeywordRuleEngine.reload();
+        return true;
     }
 
     /**
-     * 删除指定的二级分类（仅限自定义分类）
+     * 删除指定的二级分类（仅限自定义分类），指向它的关键词规则一并删除
      * @param parentName 一级分类名称
      * @param childName 要删除的二级分类名称
      * @return true 如果删除成功
      */
     public static boolean deleteChildCategory(String parentName, String childName) {
+        try {
+            return deleteChildCategoryLocked(parentName, childName);
+        } finally {
+            dispatchPending();
+        }
+    }
+
+    private static synchronized boolean deleteChildCategoryLocked(String parentName, String childName) {
         // 1. 安全校验：防止删除系统内置的二级分类
         if (!isCustomChildCategory(parentName, childName)) {
             System.err.println("无法删除系统默认二级分类：" + childName);
             return false;
         }
 
-        String sql = "DELETE FROM sub_categories WHERE name = ? AND parent_name = ?";
+        // 外键级联会同时删除该二级分类下的账单
+        int affectedRows = inTransaction(conn -> {
+            update(conn, "DELETE FROM category_rules WHERE parent = ? AND sub = ?", parentName, childName);
+            return update(conn, "DELETE FROM sub_categories WHERE name = ? AND parent_id = "
+                    + "(SELECT id FROM categories WHERE name = ?)", childName, parentName);
+        });
+        if (affectedRows <= 0) return false;
+
+        // 2. 同步更新内存缓存，保持 UI 实时刷新
+        Builder next = new Builder(snapshot);
+        Set<String> children = next.children.get(parentName);
+        if (children != null) {
+            children.remove(childName);
+            next.emojis.remove(childName);
+            publish(next, change(CategoryChange.Kind.REMOVED, next.types.get(parentName), parentName, childName, null));
+        }
+        CategorizationCache.invalidateChild(parentName, childName);
+        KeywordRuleEngine.reload();
+        return true;
+    }
+    // --- 变更事件 ---
 
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    /**
+     * 订阅分类体系变更。回调在修改方法返回前、释放类锁之后同步触发，通常就在执行修改的线程上（多为 FX 线程）；
+     * 多个线程同时修改时由其中一个线程按版本顺序统一派发，需要时由订阅方自行切换线程。
+     * 回调里可以读写 CategoryManager
+     */
+    public static void addChangeListener(Consumer<CategoryChange> listener) {
+        LISTENERS.add(listener);
+    }
 
-            pstmt.setString(1, childName);
-            pstmt.setString(2, parentName);
-            int affectedRows = pstmt.executeUpdate();
-
-            if (affectedRows > 0) {
-                // 2. 同步更新内存缓存，保持 UI 实时刷新
-                if (CATEGORY_MAP.containsKey(parentName)) {
-                    CATEGORY_MAP.get(parentName).remove(childName);
-                    EMOJI_MAP.remove(childName);
+    public static void removeChangeListener(Consumer<CategoryChange> listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * 当前快照对应的变更版本号；订阅方用它判断自己是否已同步到最新
+     */
+    public static long getVersion() {
+        return snapshot.version();
+    }
+
+    private static CategoryChange change(CategoryChange.Kind kind, String type, String parent, String child,
+                                         String previousName) {
+        return new CategoryChange(0, kind, type, parent, child, previousName);
+    }
+
+    /**
+     * 发布新快照并把变更事件放进待派发队列；调用方持有类锁，事件版本号在此统一分配。
+     * 事件由公开的修改方法在释放类锁后通过 {@link #dispatchPending()} 派发，订阅方不会在锁内执行
+     */
+    private static void publish(Builder next, CategoryChange... changes) {
+        long version = snapshot.version();
+        for (CategoryChange c : changes) PENDING.add(c.withVersion(++version));
+        snapshot = next.build(version);
+    }
+
+    /**
+     * 在类锁外按版本顺序派发待发事件。同一时刻只有一个线程在派发；订阅方在回调里再修改分类时，
+     * 新事件排在队尾，由同一个派发循环接着发出
+     */
+    private static void dispatchPending() {
+        if (Thread.holdsLock(CategoryManager.class)) return; // 嵌套在其他写方法里：由最外层负责
+        while (!PENDING.isEmpty() && DISPATCH_LOCK.tryLock()) {
+            try {
+                CategoryChange c;
+                while ((c = PENDING.poll()) != null) {
+                    for (Consumer<CategoryChange> listener : LISTENERS) {
+                        try {
+                            listener.accept(c);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
                 }
-                return true;
+            } finally {
+                DISPATCH_LOCK.unlock();
+            }
+        }
+    }
+
+    // --- 重命名 / 合并：单个事务内同步 bills、categories、sub_categories 与关键词规则 ---
+
+    /**
+     * 在单个事务内执行的数据库改动，返回受影响的账单条数
+     */
+    @FunctionalInterface
+    private interface TxWork {
+        int run(Connection conn) throws SQLException;
+    }
+
+    private static int inTransaction(TxWork work) {
+        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+            conn.setAutoCommit(false);
+            try {
+                int bills = work.run(conn);
+                conn.commit();
+                return bills;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            System.err.println("分类调整失败，已回滚: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static int update(Connection conn, String sql, Object... args) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) pstmt.setObject(i + 1, args[i]);
+            return pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 查询单个整数（id / 计数），无结果时返回 -1
+     */
+    private static long queryLong(Connection conn, String sql, Object... args) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) pstmt.setObject(i + 1, args[i]);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        }
+    }
+
+    private static long categoryId(Connection conn, String name) throws SQLException {
+        return queryLong(conn, "SELECT id FROM categories WHERE name = ?", name);
+    }
+
+    private static long subCategoryId(Connection conn, long parentId, String name) throws SQLException {
+        return queryLong(conn, "SELECT id FROM sub_categories WHERE parent_id = ? AND name = ?", parentId, name);
+    }
+
+    /**
+     * 一级分类 sourceId 并入 targetId：同名二级的账单改挂目标下的同名二级，其余二级整体挪过去，
+     * 账单改挂目标后删除源分类
+     *
+     * @return 改挂的账单条数
+     */
+    private static int mergeParentRows(Connection conn, long sourceId, long targetId) throws SQLException {
+        update(conn, """
+                UPDATE bill_records SET sub_category_id = (
+                    SELECT t.id FROM sub_categories s JOIN sub_categories t ON t.name = s.name
+                    WHERE s.id = bill_records.sub_category_id AND t.parent_id = ?)
+                WHERE sub_category_id IN (
+                    SELECT s.id FROM sub_categories s JOIN sub_categories t ON t.name = s.name
+                    WHERE s.parent_id = ? AND t.parent_id = ?)
+                """, targetId, sourceId, targetId);
+        // 同名二级只要有一边可见，合并后就可见
+        update(conn, "UPDATE sub_categories SET hidden = 0 WHERE parent_id = ? AND name IN "
+                + "(SELECT name FROM sub_categories WHERE parent_id = ? AND hidden = 0)", targetId, sourceId);
+        update(conn, "DELETE FROM sub_categories WHERE parent_id = ? AND name IN "
+                + "(SELECT name FROM sub_categories WHERE parent_id = ?)", sourceId, targetId);
+        update(conn, "UPDATE sub_categories SET parent_id = ? WHERE parent_id = ?", targetId, sourceId);
+        int count = update(conn, "UPDATE bill_records SET category_id = ? WHERE category_id = ?", targetId, sourceId);
+        update(conn, "DELETE FROM categories WHERE id = ?", sourceId);
+        return count;
+    }
+
+    /**
+     * 二级分类 sourceId 并入同一一级下的 targetId
+     *
+     * @return 改挂的账单条数
+     */
+    private static int mergeChildRows(Connection conn, long sourceId, long targetId) throws SQLException {
+        update(conn, "UPDATE sub_categories SET hidden = 0 WHERE id = ? "
+                + "AND (SELECT hidden FROM sub_categories WHERE id = ?) = 0", targetId, sourceId);
+        int count = update(conn, "UPDATE bill_records SET sub_category_id = ? WHERE sub_category_id = ?",
+                targetId, sourceId);
+        update(conn, "DELETE FROM sub_categories WHERE id = ?", sourceId);
+        return count;
+    }
+
+    /**
+     * 重命名自定义一级分类，账单、二级分类、关键词规则、已确认的分类缓存一并改名
+     *
+     * @return 改动的账单条数；校验不通过（内置分类、新名称已存在等）或数据库失败时返回 -1
+     */
+    public static int renameParentCategory(String oldName, String newName) {
+        try {
+            return renameParentCategoryLocked(oldName, newName);
+        } finally {
+            dispatchPending();
+        }
+    }
+
+    private static synchronized int renameParentCategoryLocked(String oldName, String newName) {
+        Snapshot current = snapshot;
+        newName = newName == null ? "" : newName.trim();
+        if (!current.children().containsKey(oldName) || !isCustomCategory(oldName)
+                || newName.isEmpty() || current.children().containsKey(newName)) {
+            return -1;
         }
-        return false;
+        String target = newName;
+        // 账单只引用 id，改名只改一行；新名称若被隐藏分类占用，先把它并进来
+        int bills = inTransaction(conn -> {
+            long id = categoryId(conn, oldName);
+            long hidden = categoryId(conn, target);
+            if (hidden >= 0) mergeParentRows(conn, hidden, id);
+            update(conn, "UPDATE categories SET name = ? WHERE id = ?", target, id);
+            update(conn, "UPDATE category_rules SET parent = ? WHERE parent = ?", target, oldName);
+            CategorizationCache.renameParent(conn, oldName, target);
+            return (int) queryLong(conn, "SELECT COUNT(*) FROM bill_records WHERE category_id = ?", id);
+        });
+        if (bills < 0) return -1;
+
+        Builder next = new Builder(current);
+        renameKey(next.children, oldName, target);
+        renameKey(next.types, oldName, target);
+        String emoji = current.parentsByChild().containsKey(oldName)
+                ? current.emojis().get(oldName) : next.emojis.remove(oldName);
+        if (emoji != null) next.emojis.putIfAbsent(target, emoji);
+        publish(next, change(CategoryChange.Kind.RENAMED, next.types.get(target), target, null, oldName));
+
+        KeywordRuleEngine.reload();
+        return bills;
     }
+
+    /**
+     * 把自定义一级分类合并进另一个同类型的一级分类：二级分类并入目标（同名去重），账单改挂目标，源分类删除
+     *
+     * @return 改动的账单条数；校验不通过或数据库失败时返回 -1
+     */
+    public static int mergeParentCategory(String source, String target) {
+        try {
+            return mergeParentCategoryLocked(source, target);
+        } finally {
+            dispatchPending();
+        }
+    }
+
+    private static synchronized int mergeParentCategoryLocked(String source, String target) {
+        Snapshot current = snapshot;
+        if (Objects.equals(source, target) || !isCustomCategory(source)
+                || !current.children().containsKey(source) || !current.children().containsKey(target)
+                || !Objects.equals(current.types().get(source), current.types().get(target))) {
+            return -1;
+        }
+        int bills = inTransaction(conn -> {
+            int count = mergeParentRows(conn, categoryId(conn, source), categoryId(conn, target));
+            update(conn, "UPDATE category_rules SET parent = ? WHERE parent = ?", target, source);
+            CategorizationCache.renameParent(conn, source, target);
+            return count;
+        });
+        if (bills < 0) return -1;
+
+        Builder next = new Builder(current);
+        String type = next.types.remove(source);
+        List<CategoryChange> changes = new ArrayList<>();
+        for (String child : next.children.remove(source)) {
+            if (next.children.get(target).add(child)) {
+                changes.add(change(CategoryChange.Kind.ADDED, type, target, child, null));
+            }
+        }
+        changes.add(change(CategoryChange.Kind.REMOVED, type, source, null, null));
+        publish(next, changes.toArray(new CategoryChange[0]));
+
+        KeywordRuleEngine.reload();
+        return bills;
+    }
+
+    /**
+     * 重命名一级分类下的自定义二级分类
+     *
+     * @return 改动的账单条数；校验不通过或数据库失败时返回 -1
+     */
+    public static int renameChildCategory(String parent, String oldName, String newName) {
+        try {
+            return renameChildCategoryLocked(parent, oldName, newName);
+        } finally {
+            dispatchPending();
+        }
+    }
+
+    private static synchronized int renameChildCategoryLocked(String parent, String oldName, String newName) {
+        Snapshot current = snapshot;
+        newName = newName == null ? "" : newName.trim();
+        if (!hasChildCategory(parent, oldName) || !isCustomChildCategory(parent, oldName)
+                || newName.isEmpty() || hasChildCategory(parent, newName)) {
+            return -1;
+        }
+        String target = newName;
+        int bills = inTransaction(conn -> {
+            long parentId = categoryId(conn, parent);
+            long id = subCategoryId(conn, parentId, oldName);
+            long hidden = subCategoryId(conn, parentId, target);
+            if (hidden >= 0) mergeChildRows(conn, hidden, id);
+            update(conn, "UPDATE sub_categories SET name = ? WHERE id = ?", target, id);
+            update(conn, "UPDATE category_rules SET sub = ? WHERE parent = ? AND sub = ?", target, parent, oldName);
+            CategorizationCache.renameChild(conn, parent, oldName, target);
+            return (int) queryLong(conn, "SELECT COUNT(*) FROM bill_records WHERE sub_category_id = ?", id);
+        });
+        if (bills < 0) return -1;
+
+        Builder next = new Builder(current);
+        Set<String> renamed = new LinkedHashSet<>();
+        for (String child : next.children.get(parent)) renamed.add(child.equals(oldName) ? target : child);
+        next.children.put(parent, renamed);
+        String emoji = current.emojis().get(oldName);
+        if (emoji != null) next.emojis.putIfAbsent(target, emoji);
+        publish(next, change(CategoryChange.Kind.RENAMED, next.types.get(parent), parent, target, oldName));
+
+        KeywordRuleEngine.reload();
+        return bills;
+    }
+
+    /**
+     * 把自定义二级分类合并进同一一级分类下的另一个二级分类（目标可以是内置的）
+     *
+     * @return 改动的账单条数；校验不通过或数据库失败时返回 -1
+     */
+    public static int mergeChildCategory(String parent, String source, String target) {
+        try {
+            return mergeChildCategoryLocked(parent, source, target);
+        } finally {
+            dispatchPending();
+        }
+    }
+
+    private static synchronized int mergeChildCategoryLocked(String parent, String source, String target) {
+        if (Objects.equals(source, target) || !hasChildCategory(parent, source)
+                || !hasChildCategory(parent, target) || !isCustomChildCategory(parent, source)) {
+            return -1;
+        }
+        int bills = inTransaction(conn -> {
+            long parentId = categoryId(conn, parent);
+            int count = mergeChildRows(conn, subCategoryId(conn, parentId, source), subCategoryId(conn, parentId, target));
+            update(conn, "UPDATE category_rules SET sub = ? WHERE parent = ? AND sub = ?", target, parent, source);
+            CategorizationCache.renameChild(conn, parent, source, target);
+            return count;
+        });
+        if (bills < 0) return -1;
+
+        Builder next = new Builder(snapshot);
+        next.children.get(parent).remove(source);
+        publish(next, change(CategoryChange.Kind.REMOVED, next.types.get(parent), parent, source, null));
+
+        KeywordRuleEngine.reload();
+        return bills;
+    }
+
+    /**
+     * 原地替换 LinkedHashMap 的键，保持顺序不变
+     */
+    private static <V> void renameKey(Map<String, V> map, String from, String to) {
+        Map<String, V> copy = new LinkedHashMap<>(map);
+        map.clear();
+        copy.forEach((k, v) -> map.put(k.equals(from) ? to : k, v));
+    }
+
     /**
      * 判断一级分类是否为自定义分类（非内置）
      * @param categoryName 分类名称
      * @return true 如果是用户后来添加的，允许删除和特殊标记
      */
     public static boolean isCustomCategory(String categoryName) {
-        // 1. 定义程序所有默认的一级分类名单
-        // 注意：这里的名单必须和你 initDefaultCategories() 里的保持绝对一致
-        Set<String> defaultCategories = Set.of(
-                "餐饮", "购物", "交通", "住宿", "日常", "学习", "人情",
-                "娱乐", "美妆", "旅游", "医疗", "会员", "通讯",
-                "工资", "奖金", "理财", "兼职", "生活费", "其他收入"
-        );
-        // 2. 如果不在这个白名单里，就属于自定义分类
-        return !defaultCategories.contains(categoryName);
+        // 不在内置分类资源里，就属于自定义分类
+        return !DefaultTaxonomy.isDefaultParent(categoryName);
     }
 
     /**
      * 判断二级分类是否为自定义
      */
     public static boolean isCustomChildCategory(String parentCategory, String childCategory) {
-        // 调用内部私有方法进行匹配检查
-        return !isDefaultChildCategory(parentCategory, childCategory);
-    }
-
-    /**
-     * 内部辅助：核对是否属于预设的二级分类树
-     */
-    private static boolean isDefaultChildCategory(String parentCategory, String childCategory) {
-        // 定义所有内置的二级分类对应关系
-        Map<String, Set<String>> defaultSubCategories = new HashMap<>();
-
-        defaultSubCategories.put("餐饮", Set.of("三餐", "咖啡", "奶茶", "食材", "柴米油盐", "零食", "水果"));
-        defaultSubCategories.put("购物", Set.of("鞋服", "日用", "数码", "包包", "厨房用品", "电器"));
-        defaultSubCategories.put("交通", Set.of("公交地铁", "打车", "共享单车", "私家车", "火车", "飞机票", "加油", "大巴"));
-        defaultSubCategories.put("住宿", Set.of("房租", "物业水电", "维修"));
-        defaultSubCategories.put("日常", Set.of("快递", "理发"));
-        defaultSubCategories.put("学习", Set.of("培训", "书籍", "文具耗材", "网课", "考试报名"));
-        defaultSubCategories.put("人情", Set.of("送礼", "发红包", "请客", "亲密付", "孝心"));
-        defaultSubCategories.put("娱乐", Set.of("电影", "游戏", "健身", "休闲", "约会", "演唱会"));
-        defaultSubCategories.put("美妆", Set.of("护肤品", "化妆品", "美容美发", "美甲美睫", "洗面奶"));
-        defaultSubCategories.put("旅游", Set.of("酒店", "景区门票", "伴手礼", "团费"));
-        defaultSubCategories.put("医疗", Set.of("就诊", "药品", "住院", "体检", "治疗", "保健"));
-        defaultSubCategories.put("会员", Set.of("视频会员", "音乐会员", "办公软件", "社交会员", "书籍会员"));
-        defaultSubCategories.put("通讯", Set.of("话费", "宽带"));
-
-        Set<String> subCats = defaultSubCategories.get(parentCategory);
-        return subCats != null && subCats.contains(childCategory);
+        // 核对是否属于预设的二级分类树
+        return !DefaultTaxonomy.isDefaultChild(parentCategory, childCategory);
     }
     // --- 临时数据搬家方法 ---
     /**
@@ -282,253 +720,150 @@ public class CategoryManager {
         } catch (IOException e) { e.printStackTrace(); }
     }
      */
-    // --- 原有只读方法（保持不变，UI无需改动） ---
-    public static Set<String> getParentCategories() { return CATEGORY_MAP.keySet(); }
-    public static List<String> getChildCategories(String parent) { return CATEGORY_MAP.getOrDefault(parent, new ArrayList<>()); }
-    public static String getEmoji(String name) { return EMOJI_MAP.getOrDefault(name, "\uD83C\uDFF7"); }
-    public static Set<String> getIncomeCategories() {
-        Set<String> incomes = new LinkedHashSet<>();
-        CATEGORY_TYPE_MAP.forEach((k, v) -> { if ("收入".equals(v)) incomes.add(k); });
-        return incomes;
-    }
-    public static Set<String> getExpenseCategories() {
-        Set<String> expenses = new LinkedHashSet<>();
-        CATEGORY_TYPE_MAP.forEach((k, v) -> { if ("支出".equals(v)) expenses.add(k); });
-        return expenses;
-    }
-
-    // --- 默认分类初始化 (Hardcoded) ---
-    /**
-     * 默认分类初始化 (V3.1 - 数据库同步版)
-     * 核心逻辑：确保在一台“干净”的电脑上运行程序时，
-     * 所有默认的一级和二级分类及其对应的 Emoji 都能被持久化进 SQLite。
-     */
-    private static void initDefaultCategories() {
-        // 1. 餐饮 (🍔 \uD83C\uDF54)
-        addCustomParentCategory("餐饮", "支出");
-        String[][] foodSubs = {
-                {"三餐", "\uD83C\uDF5A"}, {"咖啡", "\u2615"}, {"奶茶", "\uD83E\uDDCB"},
-                {"食材", "\uD83E\uDD66"}, {"柴米油盐", "\uD83E\uDDC2"}, {"零食", "\uD83C\uDF6A"}, {"水果", "\uD83C\uDF4E"}
-        };
-        for (String[] sub : foodSubs) addCustomChildCategory("餐饮", sub[0], sub[1]);
-        EMOJI_MAP.put("餐饮", "\uD83C\uDF54");
-
-        // 2. 购物 (🛍 \uD83D\uDECD)
-        addCustomParentCategory("购物", "支出");
-        String[][] shopSubs = {
-                {"鞋服", "\uD83D\uDC55"}, {"日用", "\uD83E\uDDFB"}, {"数码", "\uD83D\uDCBB"},
-                {"包包", "\uD83D\uDC5C"}, {"厨房用品", "\uD83C\uDF73"}, {"电器", "\uD83D\uDD0C"}
-        };
-        for (String[] sub : shopSubs) addCustomChildCategory("购物", sub[0], sub[1]);
-        EMOJI_MAP.put("购物", "\uD83D\uDECD");
-
-        // 3. 交通 (🚕 \uD83D\uDE98)
-        addCustomParentCategory("交通", "支出");
-        String[][] transSubs = {
-                {"公交地铁", "\uD83D\uDE88"}, {"打车", "\uD83D\uDE95"}, {"共享单车", "\uD83D\uDEB2"},
-                {"私家车", "\uD83D\uDE97"}, {"火车", "\uD83D\uDE84"}, {"飞机票", "\u2708"},
-                {"加油", "\u26FD"}, {"大巴", "\uD83D\uDE8C"}
-        };
-        for (String[] sub : transSubs) addCustomChildCategory("交通", sub[0], sub[1]);
-        EMOJI_MAP.put("交通", "\uD83D\uDE98");
-
-        // 4. 住宿 (🏠 \uD83C\uDFE0)
-        addCustomParentCategory("住宿", "支出");
-        String[][] staySubs = {
-                {"房租", "\uD83D\uDD11"}, {"物业水电", "\uD83D\uDCA1"}, {"维修", "\uD83D\uDD27"}
-        };
-        for (String[] sub : staySubs) addCustomChildCategory("住宿", sub[0], sub[1]);
-        EMOJI_MAP.put("住宿", "\uD83C\uDFE0");
-
-        // 5. 日常 (📦 \uD83D\uDCE6)
-        addCustomParentCategory("日常", "支出");
-        String[][] dailySubs = {
-                {"快递", "\uD83D\uDCE6"}, {"理发", "\u2702"}
-        };
-        for (String[] sub : dailySubs) addCustomChildCategory("日常", sub[0], sub[1]);
-        EMOJI_MAP.put("日常", "\uD83D\uDCE6");
-
-        // 6. 学习 (📚 \uD83D\uDCDA)
-        addCustomParentCategory("学习", "支出");
-        String[][] studySubs = {
-                {"培训", "\uD83C\uDFEB"}, {"书籍", "\uD83D\uDCDA"}, {"文具耗材", "\u270F"},
-                {"网课", "\uD83D\uDCBB"}, {"考试报名", "\uD83D\uDCDD"}
-        };
-        for (String[] sub : studySubs) addCustomChildCategory("学习", sub[0], sub[1]);
-        EMOJI_MAP.put("学习", "\uD83D\uDCDA");
-
-        // 7. 人情 (💖 \uD83D\uDC96)
-        addCustomParentCategory("人情", "支出");
-        String[][] heartSubs = {
-                {"送礼", "\uD83C\uDF81"}, {"发红包", "\uD83E\uDDE7"}, {"请客", "\uD83E\uDD42"},
-                {"亲密付", "\uD83D\uDC95"}, {"孝心", "\uD83D\uDC9D"}
-        };
-        for (String[] sub : heartSubs) addCustomChildCategory("人情", sub[0], sub[1]);
-        EMOJI_MAP.put("人情", "\uD83D\uDC96");
-
-        // 8. 娱乐 (🎮 \uD83C\uDFAE)
-        addCustomParentCategory("娱乐", "支出");
-        String[][] playSubs = {
-                {"电影", "\uD83C\uDFAC"}, {"游戏", "\uD83D\uDD79"}, {"健身", "\uD83C\uDFCB"},
-                {"休闲", "\uD83C\uDF75"}, {"约会", "\uD83C\uDF39"}, {"演唱会", "\uD83C\uDFA4"}
-        };
-        for (String[] sub : playSubs) addCustomChildCategory("娱乐", sub[0], sub[1]);
-        EMOJI_MAP.put("娱乐", "\uD83C\uDFAE");
-
-        // 9. 美妆 (💄 \uD83D\uDC84)
-        addCustomParentCategory("美妆", "支出");
-        String[][] beautySubs = {
-                {"护肤品", "\uD83E\uDDF4"}, {"化妆品", "\uD83D\uDC84"}, {"美容美发", "\uD83D\uDC88"},
-                {"美甲美睫", "\uD83D\uDC85"}, {"洗面奶", "\uD83E\uDDFC"}
-        };
-        for (String[] sub : beautySubs) addCustomChildCategory("美妆", sub[0], sub[1]);
-        EMOJI_MAP.put("美妆", "\uD83D\uDC84");
-
-        // 10. 旅游 (✈ \u2708)
-        addCustomParentCategory("旅游", "支出");
-        String[][] travelSubs = {
-                {"酒店", "\uD83C\uDFE8"}, {"景区门票", "\uD83C\uDFAB"}, {"伴手礼", "\uD83C\uDF81"}, {"团费", "\uD83D\uDEA9"}
-        };
-        for (String[] sub : travelSubs) addCustomChildCategory("旅游", sub[0], sub[1]);
-        EMOJI_MAP.put("旅游", "\u2708");
-
-        // 11. 医疗 (💊 \uD83D\uDC8A)
-        addCustomParentCategory("医疗", "支出");
-        String[][] medSubs = {
-                {"就诊", "\uD83C\uDFE5"}, {"药品", "\uD83D\uDC8A"}, {"住院", "\uD83D\uDECC"},
-                {"体检", "\uD83E\uDE7A"}, {"治疗", "\uD83D\uDC89"}, {"保健", "\uD83C\uDF3F"}
-        };
-        for (String[] sub : medSubs) addCustomChildCategory("医疗", sub[0], sub[1]);
-        EMOJI_MAP.put("医疗", "\uD83D\uDC8A");
-
-        // 12. 会员 (👑 \uD83D\uDC51)
-        addCustomParentCategory("会员", "支出");
-        String[][] memberSubs = {
-                {"视频会员", "\uD83C\uDFAC"}, {"音乐会员", "\uD83C\uDFB5"}, {"办公软件", "\uD83D\uDCCA"},
-                {"社交会员", "\uD83D\uDCAC"}, {"书籍会员", "\uD83D\uDCD6"}
-        };
-        for (String[] sub : memberSubs) addCustomChildCategory("会员", sub[0], sub[1]);
-        EMOJI_MAP.put("会员", "\uD83D\uDC51");
-
-        // 13. 通讯 (📞 \uD83D\uDCDE)
-        addCustomParentCategory("通讯", "支出");
-        String[][] callSubs = {
-                {"话费", "\uD83D\uDCF1"}, {"宽带", "\uD83C\uDF10"}
-        };
-        for (String[] sub : callSubs) addCustomChildCategory("通讯", sub[0], sub[1]);
-        EMOJI_MAP.put("通讯", "\uD83D\uDCDE");
-
-        // 14. 收入类 (提升为一级)
-        addCustomParentCategory("工资", "收入");
-        EMOJI_MAP.put("工资", "\uD83D\uDCB3");
-
-        addCustomParentCategory("奖金", "收入");
-        EMOJI_MAP.put("奖金", "\uD83C\uDFC6");
-
-        addCustomParentCategory("理财", "收入");
-        EMOJI_MAP.put("理财", "\uD83D\uDCC8");
-
-        addCustomParentCategory("兼职", "收入");
-        EMOJI_MAP.put("兼职", "\uD83D\uDEE0");
-
-        addCustomParentCategory("生活费", "收入");
-        EMOJI_MAP.put("生活费", "\uD83D\uDCB0");
-
-        addCustomParentCategory("其他收入", "收入");
-        EMOJI_MAP.put("其他收入", "\uD83D\uDC8E");
-    }
+    // --- 只读方法：无锁读取当前快照，返回值均不可修改（UI 只做 contains / addAll，无需改动） ---
+    public static Set<String> getParentCategories() { return snapshot.children().keySet(); }
+    public static List<String> getChildCategories(String parent) { return snapshot.children().getOrDefault(parent, List.of()); }
+    public static String getEmoji(String name) { return snapshot.emojis().getOrDefault(name, "\uD83C\uDFF7"); }
+    public static Set<String> getIncomeCategories() { return snapshot.incomes(); }
+    public static Set<String> getExpenseCategories() { return snapshot.expenses(); }
 
     /**
-     * 辅助方法：批量为二级分类设置 Emoji 图标
-     * @param args 成对出现的字符串，格式为："分类名称", "Emoji字符"
+     * 默认分类写库 (V3.2 - 单事务批量版)
+     * 由 DatabaseBootstrap 在种子版本变化时调用，连接已处于事务中。
+     * 只补齐缺失的内置分类：种子版本是资源文件的内容哈希，改一次 default-categories.json 就会重跑，
+     * 已有的行不能被覆盖——用户可能改过内置一级分类的收支类型。例外是导入账单时补建的隐藏行（类型、图标都是临时的），
+     * 以及没有图标或仍是旧版本默认标签图标的行，这些按资源文件补全。
      */
-    private static void addSubEmojis(String... args) {
-        if (args.length % 2 != 0) {
-            throw new IllegalArgumentException("参数必须成对出现: 名称, Emoji");
-        }
-        for (int i = 0; i < args.length; i += 2) {
-            // 直接存入内存缓存 EMOJI_MAP 中
-            // 这样在表格渲染时，就能通过 CategoryManager.getEmoji(name) 找到对应的图标了
-            EMOJI_MAP.put(args[i], args[i+1]);
+    private static void seedDefaultCategories(Connection conn) throws SQLException {
+        String fillEmoji = "CASE WHEN %1$s.hidden = 1 OR %1$s.emoji IS NULL OR %1$s.emoji = ? "
+                + "THEN excluded.emoji ELSE %1$s.emoji END";
+        String parentSql = "INSERT INTO categories(name, type, emoji) VALUES (?, ?, ?) "
+                + "ON CONFLICT(name) DO UPDATE SET "
+                + "type = CASE WHEN categories.hidden = 1 THEN excluded.type ELSE categories.type END, "
+                + "emoji = " + String.format(fillEmoji, "categories") + ", hidden = 0";
+        String childSql = "INSERT INTO sub_categories(parent_id, name, emoji) SELECT id, ?, ? FROM categories WHERE name = ? "
+                + "ON CONFLICT(parent_id, name) DO UPDATE SET "
+                + "emoji = " + String.format(fillEmoji, "sub_categories") + ", hidden = 0";
+        String defaultTag = "\uD83C\uDFF7"; // 🏷
+        try (PreparedStatement parentStmt = conn.prepareStatement(parentSql);
+             PreparedStatement childStmt = conn.prepareStatement(childSql)) {
+            for (DefaultTaxonomy.Category def : DefaultTaxonomy.getCategories()) {
+                parentStmt.setString(1, def.name());
+                parentStmt.setString(2, def.type());
+                parentStmt.setString(3, def.emoji());
+                parentStmt.setString(4, defaultTag);
+                parentStmt.addBatch();
+                for (DefaultTaxonomy.Child child : def.children()) {
+                    childStmt.setString(1, child.name());
+                    childStmt.setString(2, child.emoji());
+                    childStmt.setString(3, def.name());
+                    childStmt.setString(4, defaultTag);
+                    childStmt.addBatch();
+                }
+            }
+            parentStmt.executeBatch();
+            childStmt.executeBatch();
         }
     }
 
     /**
      * 导出支出分类树：Map<一级分类, List<二级分类>>
-     * 专门用于喂给 AI，让它知道目前有哪些支出类目
+     * 专门用于喂给 AI，让它知道目前有哪些支出类目。
+     * 树在快照发布时就已建好，后台线程拿到的是一份不会再变的完整视图
      */
     public static Map<String, List<String>> getExpenseCategoryTree() {
-        Map<String, List<String>> tree = new LinkedHashMap<>();
-        // 获取所有标记为“支出”的一级分类
-        Set<String> expenseParents = getExpenseCategories();
-        for (String parent : expenseParents) {
-            // 绑定对应的二级分类列表
-            tree.put(parent, getChildCategories(parent));
-        }
-        return tree;
+        return snapshot.expenseTree();
     }
 
     /**
      * 导出收入分类树
      */
     public static Map<String, List<String>> getIncomeCategoryTree() {
-        Map<String, List<String>> tree = new LinkedHashMap<>();
-        // 获取所有标记为“收入”的一级分类
-        Set<String> incomeParents = getIncomeCategories();
-        for (String parent : incomeParents) {
-            tree.put(parent, getChildCategories(parent));
-        }
-        return tree;
+        return snapshot.incomeTree();
     }
 
     // --- 个性化信息管理 ---
-    public static void addPersonalization(String info) {
-        if (info != null && !info.trim().isEmpty() && !PERSONALIZATIONS.contains(info)) {
-            PERSONALIZATIONS.add(info.trim());
+    public static synchronized void addPersonalization(String info) {
+        if (info != null && !info.trim().isEmpty() && !personalizations.contains(info)) {
+            List<String> next = new ArrayList<>(personalizations);
+            next.add(info.trim());
+            personalizations = List.copyOf(next);
             savePersonalizations();
         }
     }
 
-    public static void removePersonalization(String info) {
-        PERSONALIZATIONS.remove(info);
-        savePersonalizations();
+    public static synchronized void removePersonalization(String info) {
+        List<String> next = new ArrayList<>(personalizations);
+        if (next.remove(info)) {
+            personalizations = List.copyOf(next);
+            savePersonalizations();
+        }
     }
 
     public static List<String> getPersonalizations() {
-        return new ArrayList<>(PERSONALIZATIONS);
+        return personalizations;
     }
 
     private static void savePersonalizations() {
         try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(
                 new FileOutputStream(PERSONALIZATION_FILE), StandardCharsets.UTF_8))) {
-            for (String p : PERSONALIZATIONS) {
+            for (String p : personalizations) {
                 writer.println(p);
             }
         } catch (IOException e) { e.printStackTrace(); }
     }
 
-    private static void loadPersonalizations() {
+    private static synchronized void loadPersonalizations() {
         File file = new File(PERSONALIZATION_FILE);
         if (!file.exists()) return;
+        List<String> loaded = new ArrayList<>();
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(
                 new FileInputStream(file), StandardCharsets.UTF_8))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) PERSONALIZATIONS.add(line.trim());
+                if (!line.trim().isEmpty()) loaded.add(line.trim());
             }
         } catch (IOException e) { e.printStackTrace(); }
+        personalizations = List.copyOf(loaded);
+    }
+    /**
+     * 判断某个一级分类下是否已有该二级分类（O(1)）
+     */
+    public static boolean hasChildCategory(String parent, String childName) {
+        return snapshot.childSets().getOrDefault(parent, Set.of()).contains(childName);
     }
+
+    /**
+     * 二级分类名称反查全部所属的一级分类（按分类顺序）。
+     * 自定义分类允许不同一级下出现同名二级（如"餐饮 - 零食"与自建的"零食铺 - 零食"），所以结果可能不止一个
+     */
+    public static List<String> findParentsByChild(String childName) {
+        return snapshot.parentsByChild().getOrDefault(childName, List.of());
+    }
+
     /**
      * 根据二级分类名称反查其所属的一级分类
-     * 用于修复 AI 越级建议的 Bug
+     * 用于修复 AI 越级建议的 Bug。走反向索引，O(1)。
+     *
+     * @return 唯一的一级分类；不存在或同名二级分布在多个一级下（有歧义）时返回 null，
+     * 此时请改用 {@link #findParentByChild(String, String)} 按收支类型消歧
      */
     public static String findParentByChild(String childName) {
-        for (Map.Entry<String, List<String>> entry : CATEGORY_MAP.entrySet()) {
-            if (entry.getValue().contains(childName)) {
-                return entry.getKey();
-            }
+        List<String> parents = findParentsByChild(childName);
+        return parents.size() == 1 ? parents.get(0) : null;
+    }
+
+    /**
+     * 按收支类型消歧的反查：只在该类型的一级分类里找；
+     * 同类型下仍有多个时取分类顺序中的第一个（内置分类排在自定义分类之前，结果稳定）
+     *
+     * @param type "收入" 或 "支出"；为 null 时不按类型过滤
+     */
+    public static String findParentByChild(String childName, String type) {
+        Snapshot current = snapshot;
+        for (String parent : current.parentsByChild().getOrDefault(childName, List.of())) {
+            if (type == null || type.equals(current.types().get(parent))) return parent;
         }
         return null;
     }
 }
-
@@ -0,0 +1,235 @@
+package cn.bit.budget.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 熔断器装饰器 (V1.0)
+ * <p>
+ * 远程接口宕机时，每个批次都要等满超时才被标记失败，大文件导入能卡上好几分钟。
+ * 熔断器按连续结果切换状态：
+ * <ul>
+ *     <li>CLOSED：正常放行；连续 {@link #FAILURE_THRESHOLD} 次失败（网络异常、超时、5xx），
+ *     或连续 {@link #SLOW_THRESHOLD} 次延迟超过 SLO，即转为 OPEN；</li>
+ *     <li>OPEN：立即以 {@link CircuitOpenException} 失败，调用方直接走本地兜底；
+ *     冷却期满后在后台发一个单条探测请求，进入 HALF_OPEN；</li>
+ *     <li>HALF_OPEN：探测期间仍然快速失败；探测成功回到 CLOSED，失败则回到 OPEN 并加倍冷却时间。</li>
+ * </ul>
+ * 429 限流与输出截断由 {@link AIBatchScheduler} 自己处理，不计入熔断。
+ * </p>
+ */
+public class CircuitBreakerCategorizer implements Categorizer {
+
+    public enum State {
+        CLOSED("正常"),
+        OPEN("已熔断"),
+        HALF_OPEN("探测中");
+
+        private final String label;
+
+        State(String label) { this.label = label; }
+
+        public String getLabel() { return label; }
+    }
+
+    /**
+     * 熔断期间的快速失败；状态码 0，调度器不会重试
+     */
+    public static class CircuitOpenException extends AICategorizer.AIRequestException {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException(String message) {
+            super(0, message, false, null);
+        }
+    }
+
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final int SLOW_THRESHOLD = 3;
+    private static final long LATENCY_SLO_MS = Long.getLong("budget.ai.slo", 20_000L);
+    private static final long BASE_COOLDOWN_MS = 15_000;
+    private static final long MAX_COOLDOWN_MS = 5 * 60_000;
+
+    private static final ScheduledExecutorService PROBE_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ai-breaker-probe");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Categorizer delegate;
+    private final List<Consumer<State>> listeners = new CopyOnWriteArrayList<>();
+
+    // 以下状态均在 this 锁内访问
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private int consecutiveSlow = 0;
+    private long cooldownMs = BASE_COOLDOWN_MS;
+    private long openedAt = 0;
+    private String lastReason;
+    // 探测请求沿用最近一次真实请求的分类体系
+    private Map<String, List<String>> lastExpenseTree = Map.of();
+    private Map<String, List<String>> lastIncomeTree = Map.of();
+    private List<String> lastPersonalizations = List.of();
+
+    public CircuitBreakerCategorizer(Categorizer delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public CompletableFuture<Map<String, AICategorizer.CategoryResult>> categorize(
+            List<Map<String, Object>> billItems,
+            Map<String, List<String>> expenseTree,
+            Map<String, List<String>> incomeTree,
+            List<String> personalizations,
+            BiConsumer<String, AICategorizer.CategoryResult> onEntry) {
+
+        synchronized (this) {
+            if (state != State.CLOSED) {
+                return CompletableFuture.failedFuture(new CircuitOpenException("AI 服务熔断中：" + lastReason));
+            }
+            lastExpenseTree = expenseTree;
+            lastIncomeTree = incomeTree;
+            lastPersonalizations = personalizations;
+        }
+        long start = System.nanoTime();
+        return delegate.categorize(billItems, expenseTree, incomeTree, personalizations, onEntry)
+                .whenComplete((results, ex) -> onResult(ex, (System.nanoTime() - start) / 1_000_000));
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 状态与原因的简短描述，用于界面展示
+     */
+    public synchronized String describe() {
+        return switch (state) {
+            case CLOSED -> "AI 服务" + State.CLOSED.getLabel();
+            case OPEN -> String.format("AI 服务%s（%s），%d 秒后探测，期间使用本地分类",
+                    State.OPEN.getLabel(), lastReason,
+                    Math.max(0, (openedAt + cooldownMs - System.currentTimeMillis()) / 1000));
+            case HALF_OPEN -> "AI 服务" + State.HALF_OPEN.getLabel() + "，期间使用本地分类";
+        };
+    }
+
+    /**
+     * 订阅状态变化（在后台线程回调）
+     */
+    public void addStateListener(Consumer<State> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeStateListener(Consumer<State> listener) {
+        listeners.remove(listener);
+    }
+
+    // ================== 内部实现 ==================
+
+    private void onResult(Throwable ex, long latencyMs) {
+        Throwable error = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        State changed = null;
+        long cooldown;
+        synchronized (this) {
+            if (state != State.CLOSED) return; // 熔断前发出的请求，结果不再影响状态
+            cooldown = cooldownMs;
+            if (error == null) {
+                consecutiveFailures = 0;
+                consecutiveSlow = latencyMs > LATENCY_SLO_MS ? consecutiveSlow + 1 : 0;
+                if (consecutiveSlow >= SLOW_THRESHOLD) {
+                    changed = trip("连续 " + consecutiveSlow + " 次响应超过 " + LATENCY_SLO_MS / 1000 + " 秒");
+                }
+            } else if (countsAsFailure(error)) {
+                consecutiveFailures++;
+                if (consecutiveFailures >= FAILURE_THRESHOLD) {
+                    changed = trip("连续 " + consecutiveFailures + " 次" + AIMetrics.Failure.classify(error).getLabel());
+                }
+            }
+        }
+        if (changed != null) {
+            AIMetrics.recordCircuitTrip(lastReason(), cooldown);
+            notifyListeners(changed);
+        }
+    }
+
+    private synchronized String lastReason() {
+        return lastReason;
+    }
+
+    private static boolean countsAsFailure(Throwable error) {
+        if (!(error instanceof AICategorizer.AIRequestException e)) return true;
+        return !e.isRateLimited() && !e.isTruncated() && (e.getStatusCode() == -1 || e.getStatusCode() >= 500);
+    }
+
+    /**
+     * 转为 OPEN 并安排探测；调用方持有锁。
+     * 熔断次数由调用方在锁外记入 AIMetrics（AIMetrics.toSummary 会反过来调用 describe，锁内记录会互相等待）
+     */
+    private State trip(String reason) {
+        state = State.OPEN;
+        lastReason = reason;
+        openedAt = System.currentTimeMillis();
+        consecutiveFailures = 0;
+        consecutiveSlow = 0;
+        PROBE_TIMER.schedule(this::probe, cooldownMs, TimeUnit.MILLISECONDS);
+        return state;
+    }
+
+    private void probe() {
+        Map<String, List<String>> expenseTree;
+        Map<String, List<String>> incomeTree;
+        List<String> personalizations;
+        synchronized (this) {
+            if (state != State.OPEN) return;
+            state = State.HALF_OPEN;
+            expenseTree = lastExpenseTree;
+            incomeTree = lastIncomeTree;
+            personalizations = lastPersonalizations;
+        }
+        notifyListeners(State.HALF_OPEN);
+
+        Map<String, Object> item = new HashMap<>();
+        item.put("desc", "便利店-矿泉水");
+        item.put("amount", 2.0);
+        item.put("type_hint", "支出");
+        item.put("unique_id", "probe");
+        long start = System.nanoTime();
+        delegate.categorize(List.of(item), expenseTree, incomeTree, personalizations, null)
+                .whenComplete((results, ex) -> {
+                    long latencyMs = (System.nanoTime() - start) / 1_000_000;
+                    State next;
+                    String reason = null;
+                    long cooldown;
+                    synchronized (this) {
+                        if (ex == null && latencyMs <= LATENCY_SLO_MS) {
+                            state = State.CLOSED;
+                            cooldownMs = BASE_COOLDOWN_MS;
+                        } else {
+                            cooldownMs = Math.min(MAX_COOLDOWN_MS, cooldownMs * 2);
+                            reason = "探测" + (ex == null ? "超时" : "失败");
+                            trip(reason);
+                        }
+                        next = state;
+                        cooldown = cooldownMs;
+                    }
+                    if (reason != null) AIMetrics.recordCircuitTrip(reason, cooldown);
+                    notifyListeners(next);
+                });
+    }
+
+    private void notifyListeners(State newState) {
+        for (Consumer<State> listener : listeners) {
+            try {
+                listener.accept(newState);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
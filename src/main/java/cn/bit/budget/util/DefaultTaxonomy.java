@@ -0,0 +1,121 @@
+package cn.bit.budget.util;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * 内置分类体系 (V1.0)
+ * <p>
+ * 内置的一级 / 二级分类（名称、收支类型、Emoji）统一放在资源文件 default-categories.json 中，
+ * 类加载时解析一次，之后只读：
+ * <ul>
+ *     <li>{@link #isDefaultParent(String)} / {@link #isDefaultChild(String, String)} 查预建的不可变索引，O(1)；</li>
+ *     <li>{@link #getVersion()} 是资源内容的哈希，改了 JSON 种子版本自动变化，不用再手动维护版本号。</li>
+ * </ul>
+ * </p>
+ */
+public final class DefaultTaxonomy {
+
+    private static final String RESOURCE = "default-categories.json";
+
+    /**
+     * 一个内置二级分类
+     */
+    public record Child(String name, String emoji) {}
+
+    /**
+     * 一个内置一级分类
+     */
+    public record Category(String name, String type, String emoji, List<Child> children) {}
+
+    private static final List<Category> CATEGORIES;
+    private static final Map<String, Set<String>> CHILDREN_BY_PARENT;
+    private static final String VERSION;
+
+    static {
+        byte[] content = readResource();
+        List<Category> categories = parse(new String(content, StandardCharsets.UTF_8));
+        Map<String, Set<String>> index = new HashMap<>();
+        for (Category category : categories) {
+            Set<String> children = new HashSet<>();
+            for (Child child : category.children()) children.add(child.name());
+            index.put(category.name(), Set.copyOf(children));
+        }
+        CATEGORIES = List.copyOf(categories);
+        CHILDREN_BY_PARENT = Map.copyOf(index);
+        VERSION = hash(content);
+    }
+
+    private DefaultTaxonomy() {}
+
+    /**
+     * 全部内置一级分类（按资源文件中的顺序）
+     */
+    public static List<Category> getCategories() {
+        return CATEGORIES;
+    }
+
+    public static boolean isDefaultParent(String name) {
+        return CHILDREN_BY_PARENT.containsKey(name);
+    }
+
+    public static boolean isDefaultChild(String parent, String child) {
+        Set<String> children = CHILDREN_BY_PARENT.get(parent);
+        return children != null && children.contains(child);
+    }
+
+    /**
+     * 种子版本：资源内容的 SHA-256 前 16 位
+     */
+    public static String getVersion() {
+        return VERSION;
+    }
+
+    // ================== 内部实现 ==================
+
+    private static byte[] readResource() {
+        try (InputStream in = DefaultTaxonomy.class.getResourceAsStream(RESOURCE)) {
+            if (in == null) throw new IllegalStateException("缺少内置分类资源: " + RESOURCE);
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException("读取内置分类资源失败: " + RESOURCE, e);
+        }
+    }
+
+    private static List<Category> parse(String json) {
+        List<Category> categories = new ArrayList<>();
+        JsonArray array = JsonParser.parseString(json).getAsJsonObject().getAsJsonArray("categories");
+        for (JsonElement element : array) {
+            JsonObject obj = element.getAsJsonObject();
+            List<Child> children = new ArrayList<>();
+            JsonArray childArray = obj.getAsJsonArray("children");
+            if (childArray != null) {
+                for (JsonElement c : childArray) {
+                    JsonObject child = c.getAsJsonObject();
+                    children.add(new Child(child.get("name").getAsString(), child.get("emoji").getAsString()));
+                }
+            }
+            categories.add(new Category(obj.get("name").getAsString(), obj.get("type").getAsString(),
+                    obj.get("emoji").getAsString(), List.copyOf(children)));
+        }
+        return categories;
+    }
+
+    private static String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package cn.bit.budget.util;
+
+import javafx.application.Platform;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.stage.Screen;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 分类图标缓存 (V1.1)
+ * <p>
+ * 以前表格的分类列每次 updateItem 都从 JAR 里读一遍 PNG 再解码，滚动时每帧每个可见单元格都要来一次，
+ * 文件名也每次逐个码点重新拼。现在：
+ * <ul>
+ *     <li>Emoji -> 文件名 预先算好并缓存；</li>
+ *     <li>Emoji -> Image 按 LRU 淘汰，最多保留 {@link #MAX_ENTRIES} 张；资源里没有的图标也记下来，不再反复查找；</li>
+ *     <li>启动时在后台线程预加载当前分类体系用到的图标，新增或改名分类时顺带预加载。</li>
+ *     <li>V1.1：构建时已把全部图标预缩放打包成精灵图（见 src/build/IconAtlasGenerator.java），
+ *     {@link #apply(ImageView, String)} 只加载一张图集，靠 viewport 截取格子；HiDPI 屏幕用 2x 图集。
+ *     图集缺失（如 IDE 里未经 Maven 构建直接运行）或图标不在图集里时退回单张 PNG。</li>
+ * </ul>
+ * </p>
+ */
+public final class EmojiIconCache {
+
+    private static final String ICON_DIR = "/cn/bit/budget/icons/";
+    private static final String ATLAS_DIR = ICON_DIR + "atlas/";
+    // 内置分类约 80 个图标，留出自定义分类和提示图标的余量
+    private static final int MAX_ENTRIES = 256;
+
+    // Emoji 图片在任意线程解码都可以，FX 线程与预加载线程共用，访问需加锁
+    private static final Map<String, Image> IMAGES = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private static final Map<String, String> FILE_NAMES = new ConcurrentHashMap<>();
+    private static final Set<String> MISSING = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 构建期生成的精灵图：第 slot 个图标位于 (slot % columns, slot / columns) 格，每格四周留 pad 像素透明边
+     */
+    private record Atlas(Image image, int scale, int cell, int pad, int columns, Map<String, Integer> slots) {
+        Rectangle2D viewport(int slot) {
+            int stride = (cell + 2 * pad) * scale;
+            return new Rectangle2D((slot % columns) * stride + pad * scale, (slot / columns) * stride + pad * scale,
+                    cell * scale, cell * scale);
+        }
+    }
+
+    private static volatile Atlas atlas;
+    private static volatile boolean atlasLoaded = false;
+    // 屏幕缩放只能在 FX 线程读取，这里记下最近一次的结果供预加载线程使用
+    private static volatile int screenScale = 1;
+
+    private static final ExecutorService PRELOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "emoji-icon-preload");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        CategoryManager.addChangeListener(change -> {
+            switch (change.kind()) {
+                case ADDED, RENAMED -> preloadAsync(List.of(CategoryManager.getEmoji(change.name())));
+                default -> { }
+            }
+        });
+    }
+
+    private EmojiIconCache() {}
+
+    /**
+     * 把 Emoji 图标放进 ImageView（尺寸由调用方的 fitWidth / fitHeight 决定）：优先用精灵图 + viewport，
+     * 否则退回单张 PNG。图集格子是按表格图标尺寸预缩放的，显示尺寸超过格子像素（如 24px 的提示图标）时
+     * 也用单张 PNG，避免放大发虚
+     *
+     * @return false 如果找不到对应图标（此时 ImageView 被清空）
+     */
+    public static boolean apply(ImageView view, String emoji) {
+        int scale = atlasScale();
+        Atlas a = getAtlas(scale);
+        double displayPx = Math.max(view.getFitWidth(), view.getFitHeight()) * scale;
+        boolean fits = a != null && displayPx <= a.cell() * a.scale();
+        Integer slot = (!fits || emoji == null) ? null : a.slots().get(getFileName(emoji));
+        if (slot != null) {
+            view.setImage(a.image());
+            view.setViewport(a.viewport(slot));
+            return true;
+        }
+        Image image = get(emoji);
+        view.setViewport(null);
+        view.setImage(image);
+        return image != null;
+    }
+
+    /**
+     * 取 Emoji 对应的图标，资源里没有时返回 null
+     */
+    public static Image get(String emoji) {
+        if (emoji == null || emoji.isEmpty()) return null;
+        synchronized (IMAGES) {
+            Image cached = IMAGES.get(emoji);
+            if (cached != null) return cached;
+        }
+        if (MISSING.contains(emoji)) return null;
+
+        Image image = load(emoji);
+        if (image == null) {
+            MISSING.add(emoji);
+            return null;
+        }
+        synchronized (IMAGES) {
+            // 预加载线程可能刚好抢先放进去，以先放入的为准
+            Image existing = IMAGES.putIfAbsent(emoji, image);
+            return existing != null ? existing : image;
+        }
+    }
+
+    /**
+     * Emoji 对应的 Twemoji 文件名，如 "🍔" -> "1f354.png"（忽略变体选择符 FE0F）
+     */
+    public static String getFileName(String emoji) {
+        return FILE_NAMES.computeIfAbsent(emoji, e -> {
+            StringBuilder sb = new StringBuilder();
+            e.codePoints().filter(cp -> cp != 0xFE0F).forEach(cp -> {
+                if (sb.length() > 0) sb.append('-');
+                sb.append(Integer.toHexString(cp));
+            });
+            return sb.append(".png").toString();
+        });
+    }
+
+    /**
+     * 在后台线程预加载当前分类体系（全部一级、二级分类）用到的图标
+     */
+    public static void preloadTaxonomy() {
+        Set<String> emojis = new LinkedHashSet<>();
+        for (String parent : CategoryManager.getParentCategories()) {
+            emojis.add(CategoryManager.getEmoji(parent));
+            for (String child : CategoryManager.getChildCategories(parent)) emojis.add(CategoryManager.getEmoji(child));
+        }
+        preloadAsync(emojis);
+    }
+
+    /**
+     * 后台预加载；有图集时只需加载图集本身，图集里没有的才逐个解码
+     */
+    public static void preloadAsync(Collection<String> emojis) {
+        List<String> pending = List.copyOf(emojis);
+        int scale = atlasScale();
+        PRELOADER.execute(() -> {
+            Atlas a = getAtlas(scale);
+            for (String emoji : pending) {
+                if (a == null || !a.slots().containsKey(getFileName(emoji))) get(emoji);
+            }
+        });
+    }
+
+    // ================== 内部实现 ==================
+
+    /**
+     * 图集只加载一次，以第一次请求时的屏幕缩放为准
+     */
+    private static Atlas getAtlas(int scale) {
+        if (!atlasLoaded) {
+            synchronized (EmojiIconCache.class) {
+                if (!atlasLoaded) {
+                    atlas = loadAtlas(scale);
+                    atlasLoaded = true;
+                }
+            }
+        }
+        return atlas;
+    }
+
+    private static Atlas loadAtlas(int scale) {
+        Properties index = new Properties();
+        try (InputStream is = EmojiIconCache.class.getResourceAsStream(ATLAS_DIR + "atlas.properties")) {
+            if (is == null) return null;
+            index.load(is);
+        } catch (IOException e) {
+            System.err.println("读取图标精灵图索引失败，改用单张图标: " + e.getMessage());
+            return null;
+        }
+
+        Image image;
+        try (InputStream is = EmojiIconCache.class.getResourceAsStream(ATLAS_DIR + "atlas@" + scale + "x.png")) {
+            if (is == null) return null;
+            image = new Image(is);
+            if (image.isError()) return null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("加载图标精灵图失败，改用单张图标: " + e.getMessage());
+            return null;
+        }
+
+        Map<String, Integer> slots = new HashMap<>();
+        int cell = 0, pad = 0, columns = 0;
+        try {
+            for (String key : index.stringPropertyNames()) {
+                int value = Integer.parseInt(index.getProperty(key).trim());
+                switch (key) {
+                    case "cell" -> cell = value;
+                    case "pad" -> pad = value;
+                    case "columns" -> columns = value;
+                    default -> slots.put(key, value);
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("图标精灵图索引格式错误，改用单张图标: " + e.getMessage());
+            return null;
+        }
+        if (cell <= 0 || columns <= 0) return null;
+        return new Atlas(image, scale, cell, pad, columns, Map.copyOf(slots));
+    }
+
+    private static int atlasScale() {
+        if (Platform.isFxApplicationThread()) {
+            screenScale = Screen.getPrimary().getOutputScaleX() > 1 ? 2 : 1;
+        }
+        return screenScale;
+    }
+
+    private static Image load(String emoji) {
+        try (InputStream is = EmojiIconCache.class.getResourceAsStream(ICON_DIR + getFileName(emoji))) {
+            if (is == null) return null;
+            Image image = new Image(is);
+            return image.isError() ? null : image;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("加载分类图标失败: " + emoji + " (" + e.getMessage() + ")");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package cn.bit.budget.util;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 确定性的假分类后端
+ * <p>
+ * 按描述的哈希在现有分类树里挑一个分类，同样的输入永远得到同样的输出，不联网、不训练。
+ * 用于离线压测导入流程（解析、分组、调度、审查表格）本身，可配置固定延迟模拟网络耗时。
+ * </p>
+ */
+public class FakeCategorizer implements Categorizer {
+
+    private final long latencyMs;
+
+    public FakeCategorizer(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    @Override
+    public String getName() {
+        return "假实现 (延迟 " + latencyMs + " ms)";
+    }
+
+    @Override
+    public CompletableFuture<Map<String, AICategorizer.CategoryResult>> categorize(
+            List<Map<String, Object>> billItems,
+            Map<String, List<String>> expenseTree,
+            Map<String, List<String>> incomeTree,
+            List<String> personalizations,
+            BiConsumer<String, AICategorizer.CategoryResult> onEntry) {
+
+        Map<String, AICategorizer.CategoryResult> results = new HashMap<>();
+        for (Map<String, Object> item : billItems) {
+            boolean income = "收入".equals(item.get("type_hint"));
+            String desc = String.valueOf(item.get("desc"));
+            results.put(String.valueOf(item.get("unique_id")), pick(desc, income ? incomeTree : expenseTree));
+        }
+        if (latencyMs <= 0) return CompletableFuture.completedFuture(results);
+        return CompletableFuture.supplyAsync(() -> results,
+                CompletableFuture.delayedExecutor(latencyMs, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 按描述哈希确定性地挑选分类；分类树为空时返回“其他”
+     */
+    static AICategorizer.CategoryResult pick(String desc, Map<String, List<String>> tree) {
+        AICategorizer.CategoryResult result = new AICategorizer.CategoryResult();
+        if (tree.isEmpty()) {
+            result.suggestion = "其他";
+            result.fallback = "其他";
+            result.isNew = true;
+            return result;
+        }
+        List<String> parents = new ArrayList<>(tree.keySet());
+        int h = desc.hashCode();
+        String parent = parents.get(Math.floorMod(h, parents.size()));
+        List<String> children = tree.get(parent);
+        result.suggestion = children.isEmpty()
+                ? parent
+                : parent + " - " + children.get(Math.floorMod(h >>> 8, children.size()));
+        result.isNew = false;
+        result.fallback = parent;
+        return result;
+    }
+}
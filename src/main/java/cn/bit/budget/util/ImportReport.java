@@ -0,0 +1,225 @@
+package cn.bit.budget.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 导入报告
+ * <p>
+ * 记录一次导入的全过程：读取/接受/拒绝的行数、拒绝原因（附少量样本）、重复条数、
+ * 处理字节数以及各阶段耗时。替代逐行打印到 System.err 的做法，
+ * 解析线程（含分块并行解析）可以并发写入。
+ * </p>
+ */
+public class ImportReport {
+
+    // 每种拒绝原因在报告中展示的样本数
+    private static final int SAMPLES_PER_REASON = 3;
+    // 为导出“被拒行文件”最多保留的行数，防止脏文件撑爆内存
+    private static final int MAX_REJECTED_ROWS = 10_000;
+
+    /**
+     * 拒绝原因
+     */
+    public enum RejectReason {
+        BAD_DATE("日期无法解析"),
+        BAD_AMOUNT("金额格式错误"),
+        MISSING_COLUMN("列数不足"),
+        NOT_A_BILL("非账单记录"),
+        OTHER("其他错误");
+
+        private final String label;
+
+        RejectReason(String label) { this.label = label; }
+
+        public String getLabel() { return label; }
+
+        /**
+         * 根据解码异常的类型归类
+         */
+        public static RejectReason classify(Throwable e) {
+            if (e instanceof NumberFormatException) return BAD_AMOUNT;
+            if (e instanceof DateTimeException) return BAD_DATE;
+            if (e instanceof IndexOutOfBoundsException) return MISSING_COLUMN;
+            return OTHER;
+        }
+    }
+
+    /**
+     * 导入阶段，用于分段计时
+     */
+    public enum Phase {
+        PARSE("文件解析"),
+        CATEGORIZE("智能分类"),
+        REVIEW("人工审查"),
+        SAVE("保存入库");
+
+        private final String label;
+
+        Phase(String label) { this.label = label; }
+
+        public String getLabel() { return label; }
+    }
+
+    /**
+     * 一条被拒绝的原始行
+     */
+    public record RejectedRow(RejectReason reason, String detail, String rawLine) {}
+
+    private final String sourceName;
+    private volatile String formatName;
+
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong bytesProcessed = new AtomicLong();
+
+    // 以下集合只在 synchronized 方法中访问；拒绝是少数路径，加锁代价可忽略
+    private final EnumMap<RejectReason, Long> rejectCounts = new EnumMap<>(RejectReason.class);
+    private final EnumMap<RejectReason, List<String>> samples = new EnumMap<>(RejectReason.class);
+    private final List<RejectedRow> rejectedRows = new ArrayList<>();
+    private final EnumMap<Phase, Long> phaseStart = new EnumMap<>(Phase.class);
+    private final EnumMap<Phase, Long> phaseNanos = new EnumMap<>(Phase.class);
+
+    public ImportReport(String sourceName) {
+        this.sourceName = sourceName;
+    }
+
+    // ================== 记录 ==================
+
+    public void setFormatName(String formatName) { this.formatName = formatName; }
+
+    public void recordAccepted() {
+        rowsRead.incrementAndGet();
+        accepted.incrementAndGet();
+    }
+
+    public synchronized void recordRejected(RejectReason reason, String detail, String rawLine) {
+        rowsRead.incrementAndGet();
+        rejectCounts.merge(reason, 1L, Long::sum);
+
+        List<String> list = samples.computeIfAbsent(reason, r -> new ArrayList<>());
+        if (list.size() < SAMPLES_PER_REASON) list.add(rawLine);
+
+        if (rejectedRows.size() < MAX_REJECTED_ROWS) {
+            rejectedRows.add(new RejectedRow(reason, detail, rawLine));
+        }
+    }
+
+    public void recordDuplicates(int count) { duplicates.addAndGet(count); }
+
+    public void setBytesProcessed(long bytes) { bytesProcessed.set(bytes); }
+
+    public synchronized void startPhase(Phase phase) {
+        phaseStart.put(phase, System.nanoTime());
+    }
+
+    public synchronized void endPhase(Phase phase) {
+        Long start = phaseStart.remove(phase);
+        if (start != null) phaseNanos.merge(phase, System.nanoTime() - start, Long::sum);
+    }
+
+    /**
+     * 清空行级统计（编码回退重新解析前调用，避免重复计数）
+     */
+    public synchronized void resetRows() {
+        rowsRead.set(0);
+        accepted.set(0);
+        rejectCounts.clear();
+        samples.clear();
+        rejectedRows.clear();
+    }
+
+    // ================== 读取 ==================
+
+    public String getSourceName() { return sourceName; }
+    public String getFormatName() { return formatName; }
+    public long getRowsRead() { return rowsRead.get(); }
+    public long getAccepted() { return accepted.get(); }
+    public long getDuplicates() { return duplicates.get(); }
+    public long getBytesProcessed() { return bytesProcessed.get(); }
+
+    public synchronized long getRejected() {
+        return rejectCounts.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public synchronized Map<RejectReason, Long> getRejectCounts() {
+        return new EnumMap<>(rejectCounts);
+    }
+
+    public synchronized long getPhaseMillis(Phase phase) {
+        return phaseNanos.getOrDefault(phase, 0L) / 1_000_000;
+    }
+
+    public synchronized boolean hasRejects() {
+        return !rejectedRows.isEmpty();
+    }
+
+    /**
+     * 生成面向用户的文字摘要
+     */
+    public synchronized String toSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("文件：").append(sourceName);
+        if (formatName != null) sb.append("（").append(formatName).append("）");
+        sb.append('\n');
+        sb.append(String.format("读取 %d 行，接受 %d 行，拒绝 %d 行，重复跳过 %d 条，处理 %.1f KB%n",
+                rowsRead.get(), accepted.get(), getRejected(), duplicates.get(), bytesProcessed.get() / 1024.0));
+
+        if (!rejectCounts.isEmpty()) {
+            sb.append("\n拒绝原因：\n");
+            rejectCounts.forEach((reason, count) -> {
+                sb.append("  · ").append(reason.getLabel()).append("：").append(count).append(" 行\n");
+                for (String sample : samples.getOrDefault(reason, List.of())) {
+                    sb.append("      ").append(abbreviate(sample)).append('\n');
+                }
+            });
+        }
+
+        sb.append("\n耗时：");
+        StringJoiner joiner = new StringJoiner("，");
+        for (Phase phase : Phase.values()) {
+            if (phaseNanos.containsKey(phase)) {
+                joiner.add(phase.getLabel() + " " + phaseNanos.get(phase) / 1_000_000 + " ms");
+            }
+        }
+        sb.append(joiner.length() == 0 ? "无" : joiner.toString());
+        return sb.toString();
+    }
+
+    /**
+     * 导出被拒行（UTF-8 带 BOM，Excel 可直接打开）
+     */
+    public synchronized void exportRejects(File target) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(target), StandardCharsets.UTF_8))) {
+            writer.write('\uFEFF');
+            writer.write("原因,详情,原始内容\n");
+            for (RejectedRow row : rejectedRows) {
+                writer.write(csvField(row.reason().getLabel()));
+                writer.write(',');
+                writer.write(csvField(row.detail()));
+                writer.write(',');
+                writer.write(csvField(row.rawLine()));
+                writer.write('\n');
+            }
+            long dropped = getRejected() - rejectedRows.size();
+            if (dropped > 0) {
+                writer.write(csvField("（另有 " + dropped + " 行未保留）"));
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static String csvField(String s) {
+        if (s == null) return "";
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String abbreviate(String s) {
+        return s.length() > 60 ? s.substring(0, 60) + "…" : s;
+    }
+}
@@ -0,0 +1,149 @@
+package cn.bit.budget.util;
+
+import java.util.function.BiConsumer;
+
+/**
+ * 增量 JSON 解析器 (V1.0)
+ * <p>
+ * 专为流式 AI 响应设计：输入是形如 {"id1": {...}, "id2": {...}} 的 JSON 对象，但它是一小段一小段到达的。
+ * 每当一个顶层条目的值（对象）闭合，立即回调 (key, 值的 JSON 文本)，不必等整段响应结束。
+ * </p>
+ * 只做结构扫描（括号深度 + 字符串/转义状态），不做完整语法校验；值的真正解析交给 Gson。
+ * 顶层对象之前的杂质（如 Markdown 代码块标记）会被忽略。非线程安全，一个响应一个实例。
+ */
+public class IncrementalJsonParser {
+
+    private final BiConsumer<String, String> onEntry;
+
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+    private boolean finished = false;
+
+    // 顶层 key 的收集
+    private boolean readingKey = false;
+    private final StringBuilder key = new StringBuilder();
+    private String currentKey;
+
+    // 当前值（深度 >= 2）的原文
+    private final StringBuilder value = new StringBuilder();
+    private int emitted = 0;
+
+    public IncrementalJsonParser(BiConsumer<String, String> onEntry) {
+        this.onEntry = onEntry;
+    }
+
+    /**
+     * 喂入下一段文本
+     */
+    public void feed(CharSequence chunk) {
+        for (int i = 0; i < chunk.length() && !finished; i++) {
+            accept(chunk.charAt(i));
+        }
+    }
+
+    /**
+     * 已回调的条目数
+     */
+    public int getEmittedCount() {
+        return emitted;
+    }
+
+    /**
+     * 顶层对象是否已完整闭合；流结束时仍为 false 说明响应被截断
+     */
+    public boolean isComplete() {
+        return finished;
+    }
+
+    private void accept(char c) {
+        if (depth >= 2) value.append(c);
+
+        if (inString) {
+            if (escaped) {
+                escaped = false;
+                if (readingKey) key.append(c);
+            } else if (c == '\\') {
+                escaped = true;
+                if (readingKey) key.append(c);
+            } else if (c == '"') {
+                inString = false;
+                if (readingKey) {
+                    readingKey = false;
+                    currentKey = unescape(key.toString());
+                }
+            } else if (readingKey) {
+                key.append(c);
+            }
+            return;
+        }
+
+        switch (c) {
+            case '"' -> {
+                inString = true;
+                if (depth == 1 && currentKey == null) {
+                    readingKey = true;
+                    key.setLength(0);
+                }
+            }
+            case '{', '[' -> {
+                depth++;
+                if (depth == 2) {
+                    value.setLength(0);
+                    value.append(c);
+                }
+            }
+            case '}', ']' -> {
+                depth--;
+                if (depth == 1 && currentKey != null) {
+                    emit();
+                } else if (depth == 0) {
+                    finished = true;
+                }
+            }
+            case ',' -> {
+                // 顶层的标量值（非对象）不关心，遇到逗号就丢弃这个 key
+                if (depth == 1) currentKey = null;
+            }
+            default -> {
+                // 空白、冒号、数字等结构外字符无需处理
+            }
+        }
+    }
+
+    private void emit() {
+        String k = currentKey;
+        currentKey = null;
+        emitted++;
+        onEntry.accept(k, value.toString());
+        value.setLength(0);
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 >= s.length()) {
+                sb.append(c);
+                continue;
+            }
+            char n = s.charAt(++i);
+            switch (n) {
+                case 'n' -> sb.append('\n');
+                case 't' -> sb.append('\t');
+                case 'r' -> sb.append('\r');
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'u' -> {
+                    if (i + 4 < s.length()) {
+                        sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    }
+                }
+                default -> sb.append(n);
+            }
+        }
+        return sb.toString();
+    }
+}
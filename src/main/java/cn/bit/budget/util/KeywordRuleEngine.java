@@ -0,0 +1,176 @@
+package cn.bit.budget.util;
+
+import cn.bit.budget.dao.DatabaseBootstrap;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * 关键词规则引擎 (V1.0 - Aho-Corasick 自动机)
+ * <p>
+ * 很多分类是确定性的（“地铁” → 交通 - 公交地铁，“瑞幸” → 餐饮 - 咖啡），没必要等大模型。
+ * 用户在设置里维护关键词规则（存于 category_rules 表），这里把全部规则编译成一台 Aho-Corasick 自动机，
+ * 对每条备注只扫描一遍即可找出所有命中的关键词，规则再多也不会变慢。
+ * 命中多条时取最长的关键词（更具体），长度相同取优先级高的。
+ * </p>
+ * 自动机是不可变快照，规则增删后整体重建再替换引用，匹配线程无需加锁。
+ */
+public class KeywordRuleEngine {
+
+    private static final String DB_URL = "jdbc:sqlite:budget_manager.db";
+
+    /**
+     * 一条关键词规则
+     *
+     * @param type 适用的收支类型，null 表示收支通用
+     * @param sub  二级分类，可为 null
+     */
+    public record Rule(long id, String keyword, String type, String parent, String sub, int priority) {
+        public String toSuggestion() {
+            return sub == null ? parent : parent + " - " + sub;
+        }
+    }
+
+    private static volatile Automaton automaton = new Automaton(List.of());
+
+    static {
+        DatabaseBootstrap.ensureSchema(); // category_rules 表
+        reload();
+    }
+
+    private KeywordRuleEngine() {}
+
+    /**
+     * 从数据库重新加载全部规则并重建自动机
+     */
+    public static void reload() {
+        List<Rule> rules = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(DB_URL);
+             ResultSet rs = conn.createStatement().executeQuery(
+                     "SELECT id, keyword, type, parent, sub, priority FROM category_rules ORDER BY id")) {
+            while (rs.next()) {
+                String type = rs.getString("type");
+                rules.add(new Rule(rs.getLong("id"), rs.getString("keyword"), type.isEmpty() ? null : type,
+                        rs.getString("parent"), rs.getString("sub"), rs.getInt("priority")));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        automaton = new Automaton(rules);
+    }
+
+    public static List<Rule> getRules() {
+        return automaton.rules;
+    }
+
+    /**
+     * 新增（或覆盖同关键词同类型的）规则
+     */
+    public static void addRule(String keyword, String type, String parent, String sub, int priority) {
+        if (keyword == null || keyword.trim().isEmpty() || parent == null) return;
+        String sql = "INSERT OR REPLACE INTO category_rules(keyword, type, parent, sub, priority) VALUES (?, ?, ?, ?, ?)";
+        try (Connection conn = DriverManager.getConnection(DB_URL);
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, keyword.trim());
+            pstmt.setString(2, type == null ? "" : type); // 空串表示收支通用，便于唯一约束生效
+            pstmt.setString(3, parent);
+            pstmt.setString(4, sub);
+            pstmt.setInt(5, priority);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        reload();
+    }
+
+    public static void removeRule(long id) {
+        try (Connection conn = DriverManager.getConnection(DB_URL);
+             PreparedStatement pstmt = conn.prepareStatement("DELETE FROM category_rules WHERE id = ?")) {
+            pstmt.setLong(1, id);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        reload();
+    }
+
+    /**
+     * 对一条备注做一次扫描，返回最合适的规则
+     *
+     * @param text 账单备注
+     * @param type 账单收支类型
+     * @return 命中的规则；没有命中返回 null
+     */
+    public static Rule match(String text, String type) {
+        return automaton.match(text, type);
+    }
+
+    /**
+     * Aho-Corasick 自动机：trie + 失败指针，输出集合沿失败链预先合并
+     */
+    private static final class Automaton {
+        private final List<Rule> rules;
+        private final Node root = new Node();
+
+        Automaton(List<Rule> rules) {
+            this.rules = List.copyOf(rules);
+            for (Rule rule : this.rules) {
+                Node node = root;
+                for (char c : rule.keyword().toLowerCase(Locale.ROOT).toCharArray()) {
+                    node = node.next.computeIfAbsent(c, k -> new Node());
+                }
+                node.outputs.add(rule);
+            }
+            buildFailureLinks();
+        }
+
+        private void buildFailureLinks() {
+            Deque<Node> queue = new ArrayDeque<>();
+            for (Node child : root.next.values()) {
+                child.fail = root;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                Node node = queue.poll();
+                for (Map.Entry<Character, Node> entry : node.next.entrySet()) {
+                    char c = entry.getKey();
+                    Node child = entry.getValue();
+                    Node f = node.fail;
+                    while (f != null && !f.next.containsKey(c)) f = f.fail;
+                    child.fail = (f == null) ? root : f.next.get(c);
+                    // 后缀上命中的关键词也算当前位置命中
+                    child.outputs.addAll(child.fail.outputs);
+                    queue.add(child);
+                }
+            }
+        }
+
+        Rule match(String text, String type) {
+            if (text == null || rules.isEmpty()) return null;
+            Rule best = null;
+            Node node = root;
+            String lower = text.toLowerCase(Locale.ROOT);
+            for (int i = 0; i < lower.length(); i++) {
+                char c = lower.charAt(i);
+                while (node != root && !node.next.containsKey(c)) node = node.fail;
+                node = node.next.getOrDefault(c, root);
+                for (Rule rule : node.outputs) {
+                    if (rule.type() != null && !rule.type().equals(type)) continue;
+                    if (best == null || isBetter(rule, best)) best = rule;
+                }
+            }
+            return best;
+        }
+
+        private static boolean isBetter(Rule a, Rule b) {
+            if (a.keyword().length() != b.keyword().length()) return a.keyword().length() > b.keyword().length();
+            return a.priority() > b.priority();
+        }
+    }
+
+    private static final class Node {
+        final Map<Character, Node> next = new HashMap<>();
+        final List<Rule> outputs = new ArrayList<>(1);
+        Node fail;
+    }
+}
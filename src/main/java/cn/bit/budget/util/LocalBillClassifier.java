@@ -0,0 +1,236 @@
+package cn.bit.budget.util;
+
+import cn.bit.budget.model.Bill;
+
+import java.util.*;
+
+/**
+ * 本地离线分类器 (V1.0 - 朴素贝叶斯 + 字符 n-gram)
+ * <p>
+ * 用用户自己的历史账单训练：特征是备注的字符 1~3 元组，标签是 [一级分类, 二级分类]，收入与支出各一套模型。
+ * 账单增删改时增量 learn / unlearn，无需全量重训。
+ * 两个用途：
+ * <ul>
+ *     <li>快速通道：样本充足、备注与历史重合度高且明显领先时直接采用，不再调用 AI（见 {@link #predictConfident}）；</li>
+ *     <li>兜底：没有网络或 AI 分析失败时，用它的预测代替“未分类”。</li>
+ * </ul>
+ * </p>
+ * 所有方法都加锁，可从 FX 线程和后台线程同时调用。
+ */
+public class LocalBillClassifier {
+
+    public static final double FAST_PATH_CONFIDENCE = 0.9;
+    // 少于这么多条训练样本时不走快速通道，避免冷启动时过度自信
+    private static final int MIN_DOCS_FOR_FAST_PATH = 20;
+    // 快速通道的其余门槛，见 predictConfident
+    private static final int MIN_LABEL_DOCS_FOR_FAST_PATH = 3;
+    private static final int MIN_KNOWN_NGRAMS = 3;
+    private static final double MIN_KNOWN_NGRAM_RATIO = 0.5;
+    private static final double FAST_PATH_MIN_ODDS = 20;
+    private static final int MAX_NGRAM = 3;
+    private static final String UNCATEGORIZED = "未分类";
+
+    /**
+     * 预测结果
+     *
+     * @param sub        二级分类，可为 null
+     * @param confidence 后验概率，0~1
+     */
+    public record Prediction(String parent, String sub, double confidence) {
+        public String toSuggestion() {
+            return sub == null ? parent : parent + " - " + sub;
+        }
+    }
+
+    private static final Map<String, TypeModel> MODELS = new HashMap<>();
+
+    private LocalBillClassifier() {}
+
+    /**
+     * 用全部历史账单重建模型（启动时、批量删除后调用）
+     */
+    public static synchronized void retrain(List<Bill> bills) {
+        MODELS.clear();
+        for (Bill b : bills) learn(b);
+    }
+
+    public static synchronized void learn(Bill bill) {
+        update(bill, 1);
+    }
+
+    public static synchronized void learnAll(Collection<Bill> bills) {
+        for (Bill b : bills) update(b, 1);
+    }
+
+    public static synchronized void unlearn(Bill bill) {
+        update(bill, -1);
+    }
+
+    public static synchronized void unlearnAll(Collection<Bill> bills) {
+        for (Bill b : bills) update(b, -1);
+    }
+
+    /**
+     * 预测一条备注的分类
+     *
+     * @return 预测结果；模型为空或备注与历史毫无重合时返回 null
+     */
+    public static synchronized Prediction predict(String remark, String type) {
+        TypeModel model = MODELS.get(type);
+        if (model == null || model.totalDocs == 0) return null;
+        Map<String, Integer> features = extractFeatures(remark);
+        if (features.isEmpty()) return null;
+
+        // 至少要有一个特征见过，否则只是先验在投票
+        boolean seen = false;
+        for (String f : features.keySet()) {
+            if (model.vocabulary.containsKey(f)) { seen = true; break; }
+        }
+        if (!seen) return null;
+
+        Ranking r = rank(model, features, 1);
+        return r == null ? null : r.toPrediction();
+    }
+
+    /**
+     * 快速通道：重叠的 1~3 元组高度相关，朴素贝叶斯的后验会严重高估，单凭一个常见的二元组（如“支付”）就能冲到 0.99。
+     * 因此只有同时满足以下条件才返回：
+     * <ul>
+     *     <li>该收支类型的样本不少于 {@link #MIN_DOCS_FOR_FAST_PATH} 条，且预测出的分类本身至少有
+     *     {@link #MIN_LABEL_DOCS_FOR_FAST_PATH} 条样本；</li>
+     *     <li>备注里的多字元组至少 {@link #MIN_KNOWN_NGRAMS} 个、且不少于 {@link #MIN_KNOWN_NGRAM_RATIO} 在历史里出现过；</li>
+     *     <li>按 n-gram 阶数降温（每个字大约被计了 {@link #MAX_NGRAM} 次）后的后验不低于 {@link #FAST_PATH_CONFIDENCE}，
+     *     且领先第二名至少 {@link #FAST_PATH_MIN_ODDS} 倍。</li>
+     * </ul>
+     */
+    public static synchronized Prediction predictConfident(String remark, String type) {
+        TypeModel model = MODELS.get(type);
+        if (model == null || model.totalDocs < MIN_DOCS_FOR_FAST_PATH) return null;
+        Map<String, Integer> features = extractFeatures(remark);
+
+        int ngrams = 0;
+        int known = 0;
+        for (String f : features.keySet()) {
+            if (f.length() < 2) continue; // 单字几乎都见过，不算证据
+            ngrams++;
+            if (model.vocabulary.containsKey(f)) known++;
+        }
+        if (known < MIN_KNOWN_NGRAMS || known < ngrams * MIN_KNOWN_NGRAM_RATIO) return null;
+
+        Ranking r = rank(model, features, MAX_NGRAM);
+        if (r == null || model.labels.get(r.label()).docs < MIN_LABEL_DOCS_FOR_FAST_PATH) return null;
+        if (r.confidence() < FAST_PATH_CONFIDENCE || r.logOdds() < Math.log(FAST_PATH_MIN_ODDS)) return null;
+        return r.toPrediction();
+    }
+
+    // ================== 内部实现 ==================
+
+    private static void update(Bill bill, int delta) {
+        if (bill == null || bill.getType() == null || bill.getCategory() == null) return;
+        if (UNCATEGORIZED.equals(bill.getCategory())) return;
+        Map<String, Integer> features = extractFeatures(bill.getRemark());
+        if (features.isEmpty()) return;
+
+        TypeModel model = MODELS.computeIfAbsent(bill.getType(), k -> new TypeModel());
+        String label = bill.getCategory() + "|" + (bill.getSubCategory() == null ? "" : bill.getSubCategory());
+        LabelStats stats = model.labels.get(label);
+        if (stats == null) {
+            if (delta < 0) return; // 从未学过的标签无从遗忘
+            stats = new LabelStats();
+            model.labels.put(label, stats);
+        }
+
+        stats.docs += delta;
+        model.totalDocs += delta;
+        for (Map.Entry<String, Integer> f : features.entrySet()) {
+            int d = f.getValue() * delta;
+            stats.tokens += d;
+            stats.counts.merge(f.getKey(), d, (a, b) -> a + b == 0 ? null : a + b);
+            model.vocabulary.merge(f.getKey(), d, (a, b) -> a + b == 0 ? null : a + b);
+        }
+        if (stats.docs <= 0) model.labels.remove(label);
+    }
+
+    /**
+     * 字符 1~3 元组；去掉“(导入)”后缀与数字（订单号、金额之类对分类没有帮助）
+     */
+    static Map<String, Integer> extractFeatures(String remark) {
+        Map<String, Integer> features = new HashMap<>();
+        if (remark == null) return features;
+        String text = remark.replace("(导入)", "")
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("[\\d\\s]+", " ")
+                .trim();
+        if (text.isEmpty()) return features;
+
+        String padded = "^" + text + "$";
+        for (int n = 1; n <= MAX_NGRAM; n++) {
+            for (int i = 0; i + n <= padded.length(); i++) {
+                String gram = padded.substring(i, i + n);
+                if (gram.isBlank() || "^".equals(gram) || "$".equals(gram)) continue;
+                features.merge(gram, 1, Integer::sum);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * 各标签打分后的第一名
+     *
+     * @param confidence 归一化后的后验概率
+     * @param logOdds    第一名与第二名的对数似然差；只有一个标签时为正无穷
+     */
+    private record Ranking(String label, double confidence, double logOdds) {
+        Prediction toPrediction() {
+            String[] parts = label.split("\\|", -1);
+            return new Prediction(parts[0], parts[1].isEmpty() ? null : parts[1], confidence);
+        }
+    }
+
+    /**
+     * 多项式朴素贝叶斯打分；似然部分除以 temperature，用来抵消重叠 n-gram 的重复计数
+     */
+    private static Ranking rank(TypeModel model, Map<String, Integer> features, double temperature) {
+        int vocabSize = model.vocabulary.size();
+        String bestLabel = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        double secondScore = Double.NEGATIVE_INFINITY;
+        Map<String, Double> scores = new HashMap<>();
+        for (Map.Entry<String, LabelStats> entry : model.labels.entrySet()) {
+            LabelStats stats = entry.getValue();
+            double denominator = Math.log(stats.tokens + vocabSize);
+            double likelihood = 0;
+            for (Map.Entry<String, Integer> f : features.entrySet()) {
+                int count = stats.counts.getOrDefault(f.getKey(), 0);
+                likelihood += f.getValue() * (Math.log(count + 1) - denominator);
+            }
+            double score = Math.log((double) stats.docs / model.totalDocs) + likelihood / temperature;
+            scores.put(entry.getKey(), score);
+            if (score > bestScore) {
+                secondScore = bestScore;
+                bestScore = score;
+                bestLabel = entry.getKey();
+            } else if (score > secondScore) {
+                secondScore = score;
+            }
+        }
+        if (bestLabel == null) return null;
+
+        // log-sum-exp 归一化得到后验概率
+        double sum = 0;
+        for (double s : scores.values()) sum += Math.exp(s - bestScore);
+        return new Ranking(bestLabel, 1.0 / sum, bestScore - secondScore);
+    }
+
+    private static final class TypeModel {
+        final Map<String, LabelStats> labels = new HashMap<>();
+        final Map<String, Integer> vocabulary = new HashMap<>();
+        int totalDocs;
+    }
+
+    private static final class LabelStats {
+        final Map<String, Integer> counts = new HashMap<>();
+        int docs;
+        int tokens;
+    }
+}
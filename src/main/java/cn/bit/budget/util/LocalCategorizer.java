@@ -0,0 +1,51 @@
+package cn.bit.budget.util;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * 纯本地分类后端：关键词规则优先，其次是用户历史训练出的贝叶斯模型
+ * <p>
+ * 不联网，结果立即返回；两者都没有把握的条目不出现在结果里，由调用方按“分析失败”处理。
+ * </p>
+ */
+public class LocalCategorizer implements Categorizer {
+
+    @Override
+    public String getName() {
+        return "本地规则 + 贝叶斯";
+    }
+
+    @Override
+    public CompletableFuture<Map<String, AICategorizer.CategoryResult>> categorize(
+            List<Map<String, Object>> billItems,
+            Map<String, List<String>> expenseTree,
+            Map<String, List<String>> incomeTree,
+            List<String> personalizations,
+            BiConsumer<String, AICategorizer.CategoryResult> onEntry) {
+
+        Map<String, AICategorizer.CategoryResult> results = new HashMap<>();
+        for (Map<String, Object> item : billItems) {
+            String desc = String.valueOf(item.get("desc"));
+            String type = String.valueOf(item.get("type_hint"));
+            AICategorizer.CategoryResult result = new AICategorizer.CategoryResult();
+
+            KeywordRuleEngine.Rule rule = KeywordRuleEngine.match(desc, type);
+            if (rule != null) {
+                result.suggestion = rule.toSuggestion();
+                result.fallback = rule.parent();
+                result.reason = "命中关键词规则：" + rule.keyword();
+            } else {
+                LocalBillClassifier.Prediction p = LocalBillClassifier.predict(desc, type);
+                if (p == null) continue;
+                result.suggestion = p.toSuggestion();
+                result.fallback = p.parent();
+                result.reason = String.format("本地模型预测，置信度 %.0f%%", p.confidence() * 100);
+            }
+            result.isNew = false;
+            results.put(String.valueOf(item.get("unique_id")), result);
+        }
+        return CompletableFuture.completedFuture(results);
+    }
+}
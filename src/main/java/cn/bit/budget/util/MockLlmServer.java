@@ -0,0 +1,256 @@
+package cn.bit.budget.util;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地 OpenAI 兼容桩服务
+ * <p>
+ * 基于 com.sun.net.httpserver，实现 POST /v1/chat/completions（含 stream=true 的 SSE）。
+ * 从 prompt 里解析出分类树与明细，用 {@link FakeCategorizer} 的确定性规则作答，
+ * 可配置延迟、错误率（随机返回 429 / 503）与截断率（finish_reason=length），用于离线压测整个导入链路。
+ * </p>
+ * 可独立运行：java ... cn.bit.budget.util.MockLlmServer [端口]，参数取自 budget.mock.* 系统属性；
+ * 也可以用 -Dbudget.ai.backend=mock 让应用在进程内自动启动。
+ */
+public class MockLlmServer {
+
+    private static final Gson gson = new Gson();
+    private static final String PATH = "/v1/chat/completions";
+
+    /**
+     * 桩服务参数
+     *
+     * @param latencyMs       每个请求的基础延迟
+     * @param jitterMs        在基础延迟上随机增加 0~jitterMs
+     * @param errorRate       返回 429/503 的概率
+     * @param truncateRate    输出被截断的概率
+     * @param streamChunkChars 流式时每个 SSE 事件携带的字符数
+     * @param streamDelayMs   流式时相邻事件的间隔
+     */
+    public record Config(long latencyMs, long jitterMs, double errorRate, double truncateRate,
+                         int streamChunkChars, long streamDelayMs) {
+
+        public static Config fromSystemProperties() {
+            return new Config(
+                    Long.getLong("budget.mock.latency", 300L),
+                    Long.getLong("budget.mock.jitter", 200L),
+                    Double.parseDouble(System.getProperty("budget.mock.errorRate", "0")),
+                    Double.parseDouble(System.getProperty("budget.mock.truncateRate", "0")),
+                    Integer.getInteger("budget.mock.chunkChars", 24),
+                    Long.getLong("budget.mock.streamDelay", 5L));
+        }
+    }
+
+    private final HttpServer server;
+    private final Config config;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong injectedTruncations = new AtomicLong();
+
+    private MockLlmServer(HttpServer server, Config config) {
+        this.server = server;
+        this.config = config;
+    }
+
+    /**
+     * 启动桩服务
+     *
+     * @param port 端口，0 表示随机
+     */
+    public static MockLlmServer start(int port, Config config) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        MockLlmServer mock = new MockLlmServer(http, config);
+        http.createContext(PATH, mock::handle);
+        http.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        http.start();
+        return mock;
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public long getRequestCount() { return requests.get(); }
+    public long getInjectedErrors() { return injectedErrors.get(); }
+    public long getInjectedTruncations() { return injectedTruncations.get(); }
+
+    // ================== 请求处理 ==================
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "{\"error\":{\"message\":\"method not allowed\"}}");
+                return;
+            }
+            requests.incrementAndGet();
+            Map<String, Object> request;
+            try (InputStream in = exchange.getRequestBody()) {
+                request = gson.fromJson(new String(in.readAllBytes(), StandardCharsets.UTF_8),
+                        new TypeToken<Map<String, Object>>(){}.getType());
+            }
+
+            sleep(config.latencyMs() + (config.jitterMs() > 0 ? ThreadLocalRandom.current().nextLong(config.jitterMs() + 1) : 0));
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < config.errorRate()) {
+                injectedErrors.incrementAndGet();
+                boolean rateLimited = random.nextBoolean();
+                send(exchange, rateLimited ? 429 : 503,
+                        "{\"error\":{\"message\":\"" + (rateLimited ? "rate limited" : "service unavailable") + "\"}}");
+                return;
+            }
+
+            String content = answer(request);
+            boolean truncated = random.nextDouble() < config.truncateRate();
+            if (truncated) {
+                injectedTruncations.incrementAndGet();
+                content = content.substring(0, content.length() / 2);
+            }
+            String finishReason = truncated ? "length" : "stop";
+
+            if (Boolean.TRUE.equals(request.get("stream"))) {
+                Object options = request.get("stream_options");
+                boolean includeUsage = options instanceof Map<?, ?> o && Boolean.TRUE.equals(o.get("include_usage"));
+                stream(exchange, content, finishReason, includeUsage ? usage(request, content) : null);
+            } else {
+                Map<String, Object> response = new LinkedHashMap<>();
+                response.put("id", "mock-" + requests.get());
+                response.put("object", "chat.completion");
+                response.put("choices", List.of(Map.of(
+                        "index", 0,
+                        "message", Map.of("role", "assistant", "content", content),
+                        "finish_reason", finishReason)));
+                response.put("usage", usage(request, content));
+                send(exchange, 200, gson.toJson(response));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void stream(HttpExchange exchange, String content, String finishReason,
+                        Map<String, Object> usage) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        int step = Math.max(1, config.streamChunkChars());
+        for (int i = 0; i < content.length(); i += step) {
+            String piece = content.substring(i, Math.min(content.length(), i + step));
+            Map<String, Object> chunk = Map.of("choices", List.of(Map.of("index", 0, "delta", Map.of("content", piece))));
+            out.write(("data: " + gson.toJson(chunk) + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            sleep(config.streamDelayMs());
+        }
+        Map<String, Object> last = Map.of("choices", List.of(Map.of("index", 0, "delta", Map.of(), "finish_reason", finishReason)));
+        out.write(("data: " + gson.toJson(last) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        if (usage != null) {
+            // 与 OpenAI 一致：usage 单独放在一个 choices 为空的事件里
+            Map<String, Object> usageChunk = Map.of("choices", List.of(), "usage", usage);
+            out.write(("data: " + gson.toJson(usageChunk) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        }
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * 从 prompt 中还原分类树与明细，生成以明细编号为 key 的 JSON 回答
+     */
+    private static String answer(Map<String, Object> request) {
+        String system = "";
+        String user = "";
+        for (Object entry : (List<?>) request.get("messages")) {
+            if (!(entry instanceof Map<?, ?> message)) continue;
+            if ("system".equals(message.get("role"))) system = String.valueOf(message.get("content"));
+            if ("user".equals(message.get("role"))) user = String.valueOf(message.get("content"));
+        }
+        Map<String, List<String>> expenseTree = parseTree(system, "支出:\n", "收入:\n");
+        Map<String, List<String>> incomeTree = parseTree(system, "收入:\n", "\n\n");
+
+        int start = user.indexOf('[');
+        List<Map<String, Object>> items = start < 0 ? List.of()
+                : gson.fromJson(user.substring(start), new TypeToken<List<Map<String, Object>>>(){}.getType());
+
+        Map<String, AICategorizer.CategoryResult> results = new LinkedHashMap<>();
+        for (Map<String, Object> item : items) {
+            String desc = String.valueOf(item.get("d"));
+            boolean income = "收".equals(item.get("t"));
+            results.put(String.valueOf(item.get("i")), FakeCategorizer.pick(desc, income ? incomeTree : expenseTree));
+        }
+        return gson.toJson(results);
+    }
+
+    /**
+     * 解析 AIPromptBuilder 写出的“一级: 二级/二级”行
+     */
+    private static Map<String, List<String>> parseTree(String system, String startMarker, String endMarker) {
+        Map<String, List<String>> tree = new LinkedHashMap<>();
+        int start = system.indexOf(startMarker);
+        if (start < 0) return tree;
+        start += startMarker.length();
+        int end = system.indexOf(endMarker, start);
+        if (end < 0) end = system.length();
+        for (String line : system.substring(start, end).split("\n")) {
+            if (line.isBlank()) continue;
+            int colon = line.indexOf(": ");
+            if (colon < 0) {
+                tree.put(line.trim(), List.of());
+            } else {
+                tree.put(line.substring(0, colon).trim(), List.of(line.substring(colon + 2).trim().split("/")));
+            }
+        }
+        return tree;
+    }
+
+    private static Map<String, Object> usage(Map<String, Object> request, String content) {
+        int prompt = 0;
+        for (Object entry : (List<?>) request.get("messages")) {
+            if (entry instanceof Map<?, ?> message) {
+                prompt += AIBatchScheduler.estimateTokens(String.valueOf(message.get("content")));
+            }
+        }
+        int completion = AIBatchScheduler.estimateTokens(content);
+        return Map.of("prompt_tokens", prompt, "completion_tokens", completion, "total_tokens", prompt + completion);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        Config config = Config.fromSystemProperties();
+        MockLlmServer server = start(port, config);
+        System.out.println("Mock LLM 服务已启动: " + server.getUrl() + " " + config);
+    }
+}
@@ -0,0 +1,199 @@
+package cn.bit.budget.util;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import java.util.*;
+
+/**
+ * 分类体系的可观察列表 (V1.0)
+ * <p>
+ * 以前每次分类变化，筛选框和记账对话框都要 clear() 再 addAll() 整个重建。现在这里按类型 / 一级分类
+ * 各维护一份 ObservableList，订阅 {@link CategoryManager} 的变更事件原地增删改，下拉框直接 setItems 即可。
+ * <ul>
+ *     <li>列表只读，只能通过 CategoryManager 修改；</li>
+ *     <li>带表头的版本（如 "全部分类"）同样原地同步，不会整体替换；</li>
+ *     <li>事件版本号不连续（漏收）时整体重新读取一次快照兜底。</li>
+ * </ul>
+ * 所有方法都应在 FX 线程调用；后台线程发出的变更会转到 FX 线程处理。
+ * </p>
+ */
+public final class ObservableTaxonomy {
+
+    // 键为收支类型，null 表示全部一级分类
+    private static final Map<String, ObservableList<String>> PARENT_LISTS = new HashMap<>();
+    private static final Map<String, ObservableList<String>> CHILD_LISTS = new HashMap<>();
+    // 未选一级分类时的二级列表，始终为空
+    private static final ObservableList<String> NO_CHILDREN = FXCollections.observableArrayList();
+    // 基础列表 -> (表头 -> 带表头的只读列表)
+    private static final Map<ObservableList<String>, Map<String, ObservableList<String>>> HEADER_LISTS =
+            new IdentityHashMap<>();
+
+    private static long appliedVersion = CategoryManager.getVersion();
+
+    static {
+        CategoryManager.addChangeListener(change -> {
+            if (Platform.isFxApplicationThread()) {
+                apply(change);
+            } else {
+                Platform.runLater(() -> apply(change));
+            }
+        });
+    }
+
+    private ObservableTaxonomy() {}
+
+    /**
+     * 某一收支类型下的一级分类
+     *
+     * @param type "收入" / "支出"；null 表示全部
+     */
+    public static ObservableList<String> parents(String type) {
+        return readOnly(parentList(type));
+    }
+
+    /**
+     * 在一级分类列表前加一个固定表头（如 "全部分类"）
+     */
+    public static ObservableList<String> parents(String type, String header) {
+        return withHeader(parentList(type), header);
+    }
+
+    /**
+     * 某个一级分类下的二级分类；parent 为 null 或不存在时为空列表
+     */
+    public static ObservableList<String> children(String parent) {
+        return readOnly(childList(parent));
+    }
+
+    public static ObservableList<String> children(String parent, String header) {
+        return withHeader(childList(parent), header);
+    }
+
+    // ================== 内部实现 ==================
+
+    private static ObservableList<String> parentList(String type) {
+        return PARENT_LISTS.computeIfAbsent(type,
+                t -> FXCollections.observableArrayList(currentParents(t)));
+    }
+
+    private static ObservableList<String> childList(String parent) {
+        if (parent == null) return NO_CHILDREN;
+        return CHILD_LISTS.computeIfAbsent(parent,
+                p -> FXCollections.observableArrayList(CategoryManager.getChildCategories(p)));
+    }
+
+    private static Collection<String> currentParents(String type) {
+        if ("收入".equals(type)) return CategoryManager.getIncomeCategories();
+        if ("支出".equals(type)) return CategoryManager.getExpenseCategories();
+        return CategoryManager.getParentCategories();
+    }
+
+    private static ObservableList<String> readOnly(ObservableList<String> base) {
+        return withHeader(base, null);
+    }
+
+    /**
+     * 带表头的只读镜像：监听基础列表的增量变化，按偏移量原地同步
+     */
+    private static ObservableList<String> withHeader(ObservableList<String> base, String header) {
+        Map<String, ObservableList<String>> byHeader = HEADER_LISTS.computeIfAbsent(base, b -> new HashMap<>());
+        return byHeader.computeIfAbsent(header, h -> {
+            if (h == null) return FXCollections.unmodifiableObservableList(base);
+            ObservableList<String> mirror = FXCollections.observableArrayList();
+            mirror.add(h);
+            mirror.addAll(base);
+            base.addListener((ListChangeListener<String>) c -> {
+                while (c.next()) {
+                    if (c.wasPermutated() || c.wasUpdated()) {
+                        List<String> all = new ArrayList<>(base.size() + 1);
+                        all.add(h);
+                        all.addAll(base);
+                        mirror.setAll(all);
+                        return;
+                    }
+                    if (c.wasRemoved()) mirror.remove(c.getFrom() + 1, c.getFrom() + 1 + c.getRemovedSize());
+                    if (c.wasAdded()) mirror.addAll(c.getFrom() + 1, c.getAddedSubList());
+                }
+            });
+            return FXCollections.unmodifiableObservableList(mirror);
+        });
+    }
+
+    private static void apply(CategoryManager.CategoryChange change) {
+        if (change.version() <= appliedVersion) return; // 上次整体校正时已经包含了这次变化
+        if (change.version() != appliedVersion + 1) {
+            resync();
+            return;
+        }
+        appliedVersion = change.version();
+        if (change.isChildLevel()) {
+            applyChild(change);
+        } else {
+            applyParent(change);
+        }
+    }
+
+    private static void applyParent(CategoryManager.CategoryChange change) {
+        String parent = change.parent();
+        switch (change.kind()) {
+            case ADDED -> {
+                addIfAbsent(PARENT_LISTS.get(null), parent);
+                addIfAbsent(PARENT_LISTS.get(change.type()), parent);
+            }
+            case REMOVED -> {
+                for (ObservableList<String> list : PARENT_LISTS.values()) list.remove(parent);
+                ObservableList<String> children = CHILD_LISTS.get(parent);
+                if (children != null) children.clear();
+            }
+            case RENAMED -> {
+                for (ObservableList<String> list : PARENT_LISTS.values()) replace(list, change.previousName(), parent);
+                // 正在展示旧一级分类子项的下拉框继续可用
+                ObservableList<String> children = CHILD_LISTS.remove(change.previousName());
+                if (children != null) CHILD_LISTS.put(parent, children);
+            }
+            case TYPE_CHANGED -> {
+                // 从其他类型的列表挪到新类型下，"全部"列表与二级分类不变
+                PARENT_LISTS.forEach((type, list) -> {
+                    if (type != null && !type.equals(change.type())) list.remove(parent);
+                });
+                addIfAbsent(PARENT_LISTS.get(change.type()), parent);
+            }
+        }
+    }
+
+    private static void applyChild(CategoryManager.CategoryChange change) {
+        ObservableList<String> children = CHILD_LISTS.get(change.parent());
+        if (children == null) return;
+        switch (change.kind()) {
+            case ADDED -> addIfAbsent(children, change.child());
+            case REMOVED -> children.remove(change.child());
+            case RENAMED -> replace(children, change.previousName(), change.child());
+            case TYPE_CHANGED -> { }
+        }
+    }
+
+    private static void addIfAbsent(ObservableList<String> list, String name) {
+        if (list != null && !list.contains(name)) list.add(name);
+    }
+
+    private static void replace(ObservableList<String> list, String oldName, String newName) {
+        int index = list.indexOf(oldName);
+        if (index >= 0) list.set(index, newName);
+    }
+
+    /**
+     * 漏收事件时按当前快照整体校正（只改有差异的列表）
+     */
+    private static void resync() {
+        appliedVersion = CategoryManager.getVersion();
+        PARENT_LISTS.forEach((type, list) -> setIfChanged(list, currentParents(type)));
+        CHILD_LISTS.forEach((parent, list) -> setIfChanged(list, CategoryManager.getChildCategories(parent)));
+    }
+
+    private static void setIfChanged(ObservableList<String> list, Collection<String> expected) {
+        if (!list.equals(new ArrayList<>(expected))) list.setAll(expected);
+    }
+}
@@ -0,0 +1,365 @@
+package cn.bit.budget.util;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 远程大模型分类后端（OpenAI 兼容的 /chat/completions 接口）
+ * <p>
+ * 地址、模型、密钥都由构造参数给出，既能连 SiliconFlow，也能连本地的 {@link MockLlmServer}。
+ * 支持普通请求与 SSE 流式两种模式。
+ * </p>
+ */
+public class RemoteLlmCategorizer implements Categorizer {
+
+    private static final Gson gson = new Gson();
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    // 非流式要等模型把整段 JSON 写完；流式只需等到响应头，之后逐条到达
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(50);
+    private static final Duration STREAM_REQUEST_TIMEOUT = Duration.ofSeconds(20);
+    // 响应头之后的超时由这里兜底：连续这么久没有新行就断开；整段流式响应不得超过总时长
+    private static final Duration STREAM_IDLE_TIMEOUT = Duration.ofSeconds(20);
+    private static final Duration STREAM_TOTAL_TIMEOUT = Duration.ofSeconds(120);
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sse-idle-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // HTTP/2 多路复用：所有批次共用一条连接；回调与解析跑在虚拟线程上，不占用 commonPool
+    private static final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    private final String apiUrl;
+    private final String apiKey;
+    private final String model;
+    private final boolean streaming;
+
+    public RemoteLlmCategorizer(String apiUrl, String apiKey, String model, boolean streaming) {
+        this.apiUrl = apiUrl;
+        this.apiKey = apiKey;
+        this.model = model;
+        this.streaming = streaming;
+    }
+
+    @Override
+    public String getName() {
+        return (streaming ? "远程模型(流式) " : "远程模型 ") + model;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, AICategorizer.CategoryResult>> categorize(
+            List<Map<String, Object>> billItems,
+            Map<String, List<String>> expenseTree,
+            Map<String, List<String>> incomeTree,
+            List<String> personalizations,
+            BiConsumer<String, AICategorizer.CategoryResult> onEntry) {
+        return streaming
+                ? categorizeStreaming(billItems, expenseTree, incomeTree, personalizations,
+                        onEntry != null ? onEntry : (id, result) -> {})
+                : categorizeBlocking(billItems, expenseTree, incomeTree, personalizations);
+    }
+
+    private CompletableFuture<Map<String, AICategorizer.CategoryResult>> categorizeBlocking(
+            List<Map<String, Object>> billItems,
+            Map<String, List<String>> expenseTree,
+            Map<String, List<String>> incomeTree,
+            List<String> personalizations) {
+
+        // 静态前缀（system）按分类体系缓存，user 里只放本批次的紧凑明细
+        AIPromptBuilder.Prompt prompt = AIPromptBuilder.build(billItems, expenseTree, incomeTree, personalizations);
+
+        // sendAsync：等待响应期间不占任何线程，解析在客户端的虚拟线程上完成
+        return client.sendAsync(buildRequest(prompt, false), HttpResponse.BodyHandlers.ofString())
+                .handle((response, ex) -> {
+                    if (ex != null) {
+                        // 网络异常、超时等统一视为状态码 -1，交给调用方决定是否重试
+                        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                        throw new AICategorizer.AIRequestException(-1, cause.getMessage(), false, cause);
+                    }
+                    try {
+                        return parseResponse(response, prompt);
+                    } catch (AICategorizer.AIRequestException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new AICategorizer.AIRequestException(200, "AI 响应结构异常: " + e.getMessage(), false, e);
+                    }
+                });
+    }
+
+    private Map<String, AICategorizer.CategoryResult> parseResponse(HttpResponse<String> response, AIPromptBuilder.Prompt prompt) {
+        String rawBody = response.body();
+        // 🔥 关键：增加打印原始响应，帮你抓出“毒账单”
+        if (response.statusCode() != 200) {
+            System.err.println("API 错误: " + rawBody);
+            throw new AICategorizer.AIRequestException(response.statusCode(), "API 返回 " + response.statusCode(), false, null);
+        }
+
+        // 解析逻辑
+        Map<String, Object> respMap = gson.fromJson(rawBody, new TypeToken<Map<String, Object>>(){}.getType());
+        recordUsage(respMap.get("usage"));
+        Map<?, ?> choice = (Map<?, ?>) ((List<?>) respMap.get("choices")).get(0);
+        String content = (String) ((Map<?, ?>) choice.get("message")).get("content");
+        boolean truncated = "length".equals(choice.get("finish_reason"));
+
+        // 1. 过滤 DeepSeek 的思考块
+        if (content.contains("</think>")) {
+            content = content.split("</think>")[1].trim();
+        }
+        // 2. 终极 JSON 提取大法：不管 AI 废话多少，只取大括号里的内容
+        int startJson = content.indexOf("{");
+        int endJson = content.lastIndexOf("}");
+        if (startJson != -1 && endJson != -1 && startJson < endJson) {
+            content = content.substring(startJson, endJson + 1);
+        } else {
+            System.err.println("AI 返回的内容不含有效 JSON: " + content);
+            throw new AICategorizer.AIRequestException(200, "AI 返回的内容不含有效 JSON", truncated, null);
+        }
+        // 解析为新的复杂结构
+        try {
+            Map<String, AICategorizer.CategoryResult> byShortId = gson.fromJson(content, new TypeToken<Map<String, AICategorizer.CategoryResult>>(){}.getType());
+            return AIPromptBuilder.restoreIds(byShortId, prompt.idMap());
+        } catch (Exception e) {
+            // 4. 🔥 解析失败时，把那个“断掉的 JSON”打印出来
+            System.err.println("Gson 解析失败！可能是被截断了：\n" + content);
+            throw new AICategorizer.AIRequestException(200, "AI 返回的 JSON 无法解析", true, e);
+        }
+    }
+
+    /**
+     * 流式版本 (SSE)：每个明细的结果一闭合就通过 onEntry 回调，不必等整段响应
+     * 响应被截断时以 truncated 的 AIRequestException 结束（已回调的条目依然有效）；
+     * 服务端挂着连接不再发送、或总时长超限时断开，以状态码 -1 的 AIRequestException 结束，调度器会重试
+     */
+    private CompletableFuture<Map<String, AICategorizer.CategoryResult>> categorizeStreaming(
+            List<Map<String, Object>> billItems,
+            Map<String, List<String>> expenseTree,
+            Map<String, List<String>> incomeTree,
+            List<String> personalizations,
+            BiConsumer<String, AICategorizer.CategoryResult> onEntry) {
+
+        AIPromptBuilder.Prompt prompt = AIPromptBuilder.build(billItems, expenseTree, incomeTree, personalizations);
+        SseSubscriber subscriber = new SseSubscriber(prompt.idMap(), onEntry);
+
+        CompletableFuture<Map<String, AICategorizer.CategoryResult>> future = client.sendAsync(buildRequest(prompt, true),
+                        HttpResponse.BodyHandlers.fromLineSubscriber(subscriber, SseSubscriber::getResults, null))
+                .handle((response, ex) -> {
+                    if (ex != null) {
+                        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                        throw new AICategorizer.AIRequestException(-1, cause.getMessage(), false, cause);
+                    }
+                    if (response.statusCode() != 200) {
+                        System.err.println("API 错误: " + subscriber.getRawText());
+                        throw new AICategorizer.AIRequestException(response.statusCode(), "API 返回 " + response.statusCode(), false, null);
+                    }
+                    if (!subscriber.isComplete()) {
+                        throw new AICategorizer.AIRequestException(200, "流式响应不完整，已收到 " + response.body().size() + " 条",
+                                true, null);
+                    }
+                    return response.body();
+                });
+
+        // 请求超时只管到响应头为止，之后连接挂住时 future 永远不会结束，批次会一直占着并发额度
+        subscriber.watchIdle(future);
+        return future.orTimeout(STREAM_TOTAL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                .handle((results, ex) -> {
+                    if (ex == null) return results;
+                    subscriber.cancel();
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    if (cause instanceof AICategorizer.AIRequestException e) throw e;
+                    throw new AICategorizer.AIRequestException(-1,
+                            "流式响应超过 " + STREAM_TOTAL_TIMEOUT.toSeconds() + " 秒仍未结束", false, cause);
+                });
+    }
+
+    private HttpRequest buildRequest(AIPromptBuilder.Prompt prompt, boolean stream) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("messages", List.of(
+                Map.of("role", "system", "content", prompt.systemPrompt()),
+                Map.of("role", "user", "content", "### 待处理明细\n" + prompt.userPrompt())
+        ));
+        requestBody.put("stream", stream);
+        if (stream) {
+            // 让服务端在最后一个事件里带上 usage
+            requestBody.put("stream_options", Map.of("include_usage", true));
+        }
+        requestBody.put("temperature", 0.1);
+        requestBody.put("max_tokens", 20000); // 稍微调大一点，因为返回结构变复杂了
+        requestBody.put("response_format", Map.of("type", "json_object")); // 强制 JSON 模式
+
+        String jsonBody = gson.toJson(requestBody);
+
+        return HttpRequest.newBuilder()
+                .uri(URI.create(apiUrl))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + apiKey)
+                .header("Accept", stream ? "text/event-stream" : "application/json")
+                .timeout(stream ? STREAM_REQUEST_TIMEOUT : REQUEST_TIMEOUT)
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+                .build();
+    }
+
+    /**
+     * 把响应中的 usage 字段记入指标；没有或为 null 时忽略
+     */
+    private static void recordUsage(Object usage) {
+        if (!(usage instanceof Map<?, ?> map)) return;
+        if (map.get("prompt_tokens") instanceof Number prompt && map.get("completion_tokens") instanceof Number completion) {
+            AIMetrics.recordUsage(prompt.longValue(), completion.longValue());
+        }
+    }
+
+    /**
+     * 逐行消费 SSE：取出每个 data 事件里的增量文本，喂给增量 JSON 解析器
+     */
+    private static class SseSubscriber implements Flow.Subscriber<String> {
+        private final Map<String, String> idMap;
+        private final BiConsumer<String, AICategorizer.CategoryResult> onEntry;
+        private final Map<String, AICategorizer.CategoryResult> results = new ConcurrentHashMap<>();
+        private final IncrementalJsonParser parser;
+        // 非 SSE 的原始行（出错时服务端返回的普通 JSON），用于打印错误
+        private final StringBuilder rawText = new StringBuilder();
+        // DeepSeek 类模型可能先输出 <think>...</think>，其中的括号不能当成 JSON
+        private final StringBuilder thinkBuffer = new StringBuilder();
+        private boolean inThink = false;
+        private boolean sawContent = false;
+        private volatile boolean done = false;
+        private volatile Flow.Subscription subscription;
+        private volatile long lastLineNanos = System.nanoTime();
+
+        SseSubscriber(Map<String, String> idMap, BiConsumer<String, AICategorizer.CategoryResult> onEntry) {
+            this.idMap = idMap;
+            this.onEntry = onEntry;
+            this.parser = new IncrementalJsonParser(this::onJsonEntry);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        /**
+         * 空闲看门狗：超过 {@link #STREAM_IDLE_TIMEOUT} 没收到任何一行（含 SSE 心跳注释）就取消订阅，
+         * 并以可重试的网络错误结束 future
+         */
+        void watchIdle(CompletableFuture<?> future) {
+            long idleNanos = STREAM_IDLE_TIMEOUT.toNanos();
+            long wait = Math.max(0, lastLineNanos + idleNanos - System.nanoTime());
+            WATCHDOG.schedule(() -> {
+                if (future.isDone()) return;
+                if (System.nanoTime() - lastLineNanos < idleNanos) {
+                    watchIdle(future);
+                    return;
+                }
+                future.completeExceptionally(new AICategorizer.AIRequestException(-1,
+                        "流式响应 " + STREAM_IDLE_TIMEOUT.toSeconds() + " 秒没有新数据", false, null));
+                cancel();
+            }, wait, TimeUnit.NANOSECONDS);
+        }
+
+        void cancel() {
+            Flow.Subscription s = subscription;
+            if (s != null) s.cancel();
+        }
+
+        @Override
+        public void onNext(String line) {
+            lastLineNanos = System.nanoTime();
+            if (!line.startsWith("data:")) {
+                if (!line.isBlank() && rawText.length() < 4096) rawText.append(line).append('\n');
+                return;
+            }
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) {
+                done = true;
+                return;
+            }
+            try {
+                Map<String, Object> chunk = gson.fromJson(data, new TypeToken<Map<String, Object>>(){}.getType());
+                recordUsage(chunk.get("usage"));
+                if (!(chunk.get("choices") instanceof List<?> choices) || choices.isEmpty()) return;
+                if (choices.get(0) instanceof Map<?, ?> choice && choice.get("delta") instanceof Map<?, ?> delta
+                        && delta.get("content") instanceof String text) {
+                    feedContent(text);
+                }
+            } catch (Exception e) {
+                System.err.println("无法解析的 SSE 事件: " + data);
+            }
+        }
+
+        private void feedContent(String text) {
+            if (!sawContent) {
+                // 只在内容开头判断是否有思考块
+                String trimmed = text.stripLeading();
+                if (trimmed.isEmpty()) return;
+                sawContent = true;
+                inThink = trimmed.startsWith("<think>");
+            }
+            if (inThink) {
+                thinkBuffer.append(text);
+                int end = thinkBuffer.indexOf("</think>");
+                if (end < 0) return;
+                inThink = false;
+                text = thinkBuffer.substring(end + "</think>".length());
+                thinkBuffer.setLength(0);
+            }
+            parser.feed(text);
+        }
+
+        private void onJsonEntry(String shortId, String json) {
+            try {
+                AICategorizer.CategoryResult result = gson.fromJson(json, AICategorizer.CategoryResult.class);
+                if (result == null) return;
+                String id = idMap.getOrDefault(shortId, shortId);
+                results.put(id, result);
+                onEntry.accept(id, result);
+            } catch (Exception e) {
+                System.err.println("流式条目解析失败: " + json);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // 交给 sendAsync 返回的 future 处理
+        }
+
+        @Override
+        public void onComplete() {
+            // 结束由 isComplete 判断
+        }
+
+        boolean isComplete() {
+            return parser.isComplete() || (done && results.size() == idMap.size());
+        }
+
+        String getRawText() {
+            return rawText.toString();
+        }
+
+        Map<String, AICategorizer.CategoryResult> getResults() {
+            return results;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package cn.bit.budget.util;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 请求合并 (single-flight) 装饰器
+ * <p>
+ * 两次导入重叠、或者多个批次里出现同一个商户描述时，同一个问题会被并发地问好几遍。
+ * 本装饰器按 (规范化描述, 收支类型, 分类体系版本) 登记在途请求：
+ * <ul>
+ *     <li>该 key 已经在途：直接挂到已有的 future 上，不再发给后端；</li>
+ *     <li>同一批次里的重复描述：只保留第一条发出去；</li>
+ *     <li>整批都能搭车时：完全不占用网络请求。</li>
+ * </ul>
+ * 在途结束（成功或失败）即从登记表移除，不做结果缓存——持久化缓存见 {@link CategorizationCache}。
+ * 结果逐条汇总：搭车的请求失败时只有搭车的条目跟着失败，本批次已拿到的结果先经 onEntry 交出，再以该错误结束。
+ * </p>
+ */
+public class SingleFlightCategorizer implements Categorizer {
+
+    private final Categorizer delegate;
+    private final Map<String, CompletableFuture<AICategorizer.CategoryResult>> inFlight = new ConcurrentHashMap<>();
+
+    // 统计：请求的条目数、搭车的条目数、实际发出与省掉的后端调用数
+    private final AtomicLong requestedItems = new AtomicLong();
+    private final AtomicLong coalescedItems = new AtomicLong();
+    private final AtomicLong delegateCalls = new AtomicLong();
+    private final AtomicLong avoidedCalls = new AtomicLong();
+
+    public SingleFlightCategorizer(Categorizer delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName() + " + 请求合并";
+    }
+
+    @Override
+    public CompletableFuture<Map<String, AICategorizer.CategoryResult>> categorize(
+            List<Map<String, Object>> billItems,
+            Map<String, List<String>> expenseTree,
+            Map<String, List<String>> incomeTree,
+            List<String> personalizations,
+            BiConsumer<String, AICategorizer.CategoryResult> onEntry) {
+
+        String version = Integer.toHexString(Objects.hash(expenseTree, incomeTree, personalizations));
+        List<Map<String, Object>> leaders = new ArrayList<>();
+        Map<String, String> keyById = new HashMap<>();
+        Map<String, CompletableFuture<AICategorizer.CategoryResult>> futureById = new LinkedHashMap<>();
+
+        for (Map<String, Object> item : billItems) {
+            String id = String.valueOf(item.get("unique_id"));
+            String key = CategorizationCache.normalize(String.valueOf(item.get("desc")))
+                    + '\u0000' + item.get("type_hint") + '\u0000' + version;
+            CompletableFuture<AICategorizer.CategoryResult> mine = new CompletableFuture<>();
+            CompletableFuture<AICategorizer.CategoryResult> existing = inFlight.putIfAbsent(key, mine);
+            if (existing != null) {
+                coalescedItems.incrementAndGet();
+                futureById.put(id, existing);
+            } else {
+                leaders.add(item);
+                keyById.put(id, key);
+                futureById.put(id, mine);
+            }
+        }
+        requestedItems.addAndGet(billItems.size());
+
+        // 已经交给 onEntry 的条目，整批失败时不再重复转发
+        Set<String> forwarded = ConcurrentHashMap.newKeySet();
+        Map<String, AICategorizer.CategoryResult> merged = new ConcurrentHashMap<>();
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+
+        if (leaders.isEmpty()) {
+            avoidedCalls.incrementAndGet();
+        } else {
+            delegateCalls.incrementAndGet();
+            BiConsumer<String, AICategorizer.CategoryResult> leaderEntry = (id, result) -> {
+                complete(keyById.get(id), futureById.get(id), result);
+                if (onEntry != null) {
+                    if (result != null) forwarded.add(id);
+                    onEntry.accept(id, result);
+                }
+            };
+            delegate.categorize(leaders, expenseTree, incomeTree, personalizations, leaderEntry)
+                    .whenComplete((results, ex) -> {
+                        for (Map<String, Object> item : leaders) {
+                            String id = String.valueOf(item.get("unique_id"));
+                            CompletableFuture<AICategorizer.CategoryResult> future = futureById.get(id);
+                            inFlight.remove(keyById.get(id), future);
+                            if (ex != null) {
+                                future.completeExceptionally(ex);
+                            } else {
+                                // 后端没把握而缺席的条目以 null 完成，搭车方同样缺席
+                                future.complete(results.get(id));
+                            }
+                        }
+                    });
+        }
+
+        // 逐条收集结果：搭车的在途请求失败只影响搭车的那几条，不连累本批次自己拿到的结果
+        List<CompletableFuture<?>> settled = new ArrayList<>(futureById.size());
+        futureById.forEach((id, future) -> settled.add(future.handle((result, ex) -> {
+            if (ex != null) {
+                failures.put(id, ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            } else if (result != null) {
+                merged.put(id, result);
+                // 搭车条目：结果到达时按自己的 id 转发，保持流式体验
+                if (onEntry != null && !keyById.containsKey(id) && forwarded.add(id)) onEntry.accept(id, result);
+            }
+            return null;
+        })));
+
+        return CompletableFuture.allOf(settled.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            if (failures.isEmpty()) return new HashMap<>(merged);
+            Throwable own = null;
+            Throwable shared = null;
+            for (Map.Entry<String, Throwable> f : failures.entrySet()) {
+                if (keyById.containsKey(f.getKey())) own = f.getValue();
+                else shared = f.getValue();
+            }
+            if (onEntry == null) {
+                // 没有逐条通道：自己的请求成功时返回部分结果，失败的搭车条目视为缺席
+                if (own == null) return new HashMap<>(merged);
+            } else {
+                // 先把到手的结果逐条交给调用方，再以失败结束；调度器只会重试缺结果的条目
+                merged.forEach((id, result) -> {
+                    if (forwarded.add(id)) onEntry.accept(id, result);
+                });
+            }
+            Throwable cause = own != null ? own : shared;
+            throw cause instanceof RuntimeException re ? re : new CompletionException(cause);
+        });
+    }
+
+    /**
+     * 流式条目先行：提前完成并注销，后来的同 key 请求会重新发起（此时通常已被 CategorizationCache 命中）
+     */
+    private void complete(String key, CompletableFuture<AICategorizer.CategoryResult> future,
+                          AICategorizer.CategoryResult result) {
+        if (future == null) return;
+        inFlight.remove(key, future);
+        future.complete(result);
+    }
+
+    // ================== 统计 ==================
+
+    public long getRequestedItems() { return requestedItems.get(); }
+
+    /** 挂到在途请求上、没有再发给后端的条目数 */
+    public long getCoalescedItems() { return coalescedItems.get(); }
+
+    public long getDelegateCalls() { return delegateCalls.get(); }
+
+    /** 整批都能搭车、完全省掉的后端调用数 */
+    public long getAvoidedCalls() { return avoidedCalls.get(); }
+
+    public String getStatsSummary() {
+        return String.format("请求 %d 条，合并 %d 条；后端调用 %d 次，省掉 %d 次",
+                requestedItems.get(), coalescedItems.get(), delegateCalls.get(), avoidedCalls.get());
+    }
+}
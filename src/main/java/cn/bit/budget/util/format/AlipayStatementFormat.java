@@ -0,0 +1,54 @@
+package cn.bit.budget.util.format;
+
+import cn.bit.budget.model.Bill;
+
+/**
+ * 支付宝交易明细（兼容新旧两版导出）
+ * 新版：交易时间,交易分类,交易对方,对方账号,商品说明,收/支,金额,收/付款方式,交易状态,...
+ * 旧版：交易号,商家订单号,交易创建时间,付款时间,最近修改时间,交易来源地,类型,交易对方,商品名称,金额（元）,收/支,...
+ */
+public class AlipayStatementFormat implements StatementFormat {
+
+    @Override
+    public String getName() {
+        return "支付宝";
+    }
+
+    @Override
+    public int getPriority() {
+        return 20;
+    }
+
+    @Override
+    public boolean probe(String headerLine) {
+        return headerLine.contains("收/支") && headerLine.contains("交易对方")
+                && (headerLine.contains("商品说明") || headerLine.contains("商品名称"));
+    }
+
+    @Override
+    public ColumnMapping compile(String[] headers) {
+        // 旧版有多个时间列，优先取交易发生的时间
+        int time = FormatSupport.findColumn(headers, "交易时间", "交易创建时间");
+        if (time == ColumnMapping.MISSING) {
+            time = FormatSupport.findColumn(headers, "时间");
+        }
+        return new ColumnMapping(
+                time,
+                FormatSupport.findColumn(headers, "金额"),
+                FormatSupport.findColumn(headers, "收/支"),
+                FormatSupport.findColumn(headers, "交易对方"),
+                FormatSupport.findColumn(headers, "商品说明", "商品名称"));
+    }
+
+    @Override
+    public Bill decode(String[] cols, ColumnMapping m) {
+        double amount = FormatSupport.parseAmount(FormatSupport.column(cols, m.amount()));
+        // “不计收支”（余额宝转入等）按支出处理，与旧逻辑保持一致
+        String type = FormatSupport.column(cols, m.type()).contains("收入") ? "收入" : "支出";
+        return FormatSupport.newImportedBill(amount,
+                FormatSupport.parseDate(FormatSupport.column(cols, m.time())),
+                type,
+                FormatSupport.column(cols, m.partner()),
+                FormatSupport.column(cols, m.goods()));
+    }
+}
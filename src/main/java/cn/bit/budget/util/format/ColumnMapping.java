@@ -0,0 +1,23 @@
+package cn.bit.budget.util.format;
+
+/**
+ * 预编译的列映射：直接保存各字段的列下标，解码时免去 Map 查找和装箱
+ * 缺失的列用 -1 表示
+ *
+ * @param time    交易时间列
+ * @param amount  金额列
+ * @param type    收/支列（部分银行流水没有，此时按金额正负判断）
+ * @param partner 交易对方列
+ * @param goods   商品/摘要列
+ */
+public record ColumnMapping(int time, int amount, int type, int partner, int goods) {
+
+    public static final int MISSING = -1;
+
+    /**
+     * 是否具备构建账单所需的最少列（时间 + 金额）
+     */
+    public boolean isUsable() {
+        return time != MISSING && amount != MISSING;
+    }
+}
@@ -0,0 +1,177 @@
+package cn.bit.budget.util.format;
+
+import cn.bit.budget.model.Bill;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * 各格式共用的字段解码工具
+ * 手写解析日期与金额：热路径上不生成中间字符串，也不靠抛异常试错
+ */
+final class FormatSupport {
+
+    private FormatSupport() {}
+
+    /**
+     * 移除引号、制表符及前后空格；字段本身干净时直接返回原对象
+     */
+    static String clean(String s) {
+        if (s == null) return "";
+        int len = s.length();
+        int start = 0;
+        int end = len;
+        while (start < end && isTrimmable(s.charAt(start))) start++;
+        while (end > start && isTrimmable(s.charAt(end - 1))) end--;
+
+        boolean needsStrip = false;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\t') {
+                needsStrip = true;
+                break;
+            }
+        }
+        if (!needsStrip) {
+            return (start == 0 && end == len) ? s : s.substring(start, end);
+        }
+
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c != '"' && c != '\t') sb.append(c);
+        }
+        return sb.toString().trim();
+    }
+
+    private static boolean isTrimmable(char c) {
+        return c <= ' ' || c == '"';
+    }
+
+    static String column(String[] cols, int index) {
+        if (index == ColumnMapping.MISSING) return "";
+        if (index >= cols.length) {
+            throw new IndexOutOfBoundsException("列数不足: 需要第 " + (index + 1) + " 列，实际 " + cols.length + " 列");
+        }
+        return clean(cols[index]);
+    }
+
+    /**
+     * 日期解析：兼容 - 和 / 分隔，以及只到日、到分、到秒的各种精度
+     */
+    static LocalDate parseDate(String raw) {
+        int len = raw.length();
+        int year = 0, month = 0, day = 0;
+        int part = 0;
+        int value = 0;
+        int digits = 0;
+        int i = 0;
+        for (; i < len; i++) {
+            char c = raw.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                digits++;
+            } else if ((c == '-' || c == '/') && digits > 0 && part < 2) {
+                if (part == 0) year = value; else month = value;
+                part++;
+                value = 0;
+                digits = 0;
+            } else {
+                break;
+            }
+        }
+        // 日期之后只允许跟时间部分
+        boolean tailOk = i == len || raw.charAt(i) == ' ' || raw.charAt(i) == 'T';
+        if (part == 2 && digits > 0 && tailOk) {
+            day = value;
+            if (month >= 1 && month <= 12 && day >= 1 && day <= 31) {
+                try {
+                    return LocalDate.of(year, month, day);
+                } catch (RuntimeException ignored) {
+                    // 如 2 月 30 日，落到下方统一报错
+                }
+            }
+        }
+        throw new DateTimeException("无法解析日期格式: " + raw);
+    }
+
+    // 小于 2^53 的整数能被 double 精确表示
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /**
+     * 金额解析：跳过 ¥/￥ 符号、千分位逗号和空白，直接累加数字，不生成中间字符串。
+     * 整数位和小数位拼成一个整数尾数后只做一次除法，尾数与 10^n 都是精确的 double，
+     * 结果正确舍入，与 Double.parseDouble 完全一致（"1.14" 不会变成 1.1400000000000001）。
+     * 科学计数法（如 Excel 数值 "1.2345678E7"）、小数超过 9 位或尾数超出 2^53 时退回 Double.parseDouble
+     */
+    static double parseAmount(String raw) {
+        long integer = 0;
+        int integerDigits = 0;
+        long fraction = 0;
+        long scale = 1;
+        boolean negative = false;
+        boolean seenDigit = false;
+        boolean inFraction = false;
+        for (int i = 0, len = raw.length(); i < len; i++) {
+            char c = raw.charAt(i);
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (inFraction) {
+                    if (scale >= 1_000_000_000L) return parseAmountSlow(raw);
+                    fraction = fraction * 10 + (c - '0');
+                    scale *= 10;
+                } else {
+                    // long 最多安全容纳 18 位，超过就交给慢路径，避免静默溢出
+                    if (++integerDigits > 18) return parseAmountSlow(raw);
+                    integer = integer * 10 + (c - '0');
+                }
+            } else if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else if (c == '-' && !seenDigit) {
+                negative = true;
+            } else if (c != ',' && c != '¥' && c != '￥' && c != '+' && c != ' ') {
+                return parseAmountSlow(raw);
+            }
+        }
+        if (!seenDigit) throw new NumberFormatException("For input string: \"" + raw + "\"");
+        if (integer > (MAX_EXACT_MANTISSA - fraction) / scale) return parseAmountSlow(raw);
+        double amount = (double) (integer * scale + fraction) / scale;
+        return negative ? -amount : amount;
+    }
+
+    /**
+     * 慢路径：去掉货币符号、千分位和空白后按 Double 解析（支持指数部分）
+     */
+    private static double parseAmountSlow(String raw) {
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0, len = raw.length(); i < len; i++) {
+            char c = raw.charAt(i);
+            if (c != ',' && c != '¥' && c != '￥' && c != ' ') sb.append(c);
+        }
+        return Double.parseDouble(sb.toString());
+    }
+
+    /**
+     * 按统一规则组装导入账单：备注为 “交易对方-商品 (导入)”
+     */
+    static Bill newImportedBill(double amount, LocalDate date, String type, String partner, String goods) {
+        String remark = (partner + "-" + goods).trim() + " (导入)";
+        return new Bill(UUID.randomUUID().toString(), amount, "未分类", null, date, type, remark, LocalDateTime.now());
+    }
+
+    /**
+     * 查找第一个包含任一关键词、且不含“单号”的列
+     */
+    static int findColumn(String[] heads, String... keywords) {
+        for (int i = 0; i < heads.length; i++) {
+            String h = clean(heads[i]);
+            if (h.contains("单号")) continue;
+            for (String k : keywords) {
+                if (h.contains(k)) return i;
+            }
+        }
+        return ColumnMapping.MISSING;
+    }
+}
@@ -0,0 +1,64 @@
+package cn.bit.budget.util.format;
+
+import cn.bit.budget.model.Bill;
+
+/**
+ * 通用银行流水 / 兜底格式
+ * 只要求有日期和金额列；有“收/支”或“借贷”列时据此判断收支，否则按金额正负判断
+ */
+public class GenericBankCsvFormat implements StatementFormat {
+
+    @Override
+    public String getName() {
+        return "通用账单";
+    }
+
+    @Override
+    public int getPriority() {
+        return 1000;
+    }
+
+    @Override
+    public boolean probe(String headerLine) {
+        return (headerLine.contains("时间") || headerLine.contains("日期")) && headerLine.contains("金额")
+                && (headerLine.contains("收/支") || headerLine.contains("类型")
+                || headerLine.contains("借贷") || headerLine.contains("摘要") || headerLine.contains("对方"));
+    }
+
+    @Override
+    public ColumnMapping compile(String[] headers) {
+        int type = FormatSupport.findColumn(headers, "收/支", "借贷");
+        if (type == ColumnMapping.MISSING) {
+            // 只认精确的“类型”，避免误抓“交易类型”这类业务分类列
+            for (int i = 0; i < headers.length; i++) {
+                if ("类型".equals(FormatSupport.clean(headers[i]))) {
+                    type = i;
+                    break;
+                }
+            }
+        }
+        return new ColumnMapping(
+                FormatSupport.findColumn(headers, "交易时间", "交易日期", "记账日期", "时间", "日期"),
+                FormatSupport.findColumn(headers, "交易金额", "金额"),
+                type,
+                FormatSupport.findColumn(headers, "交易对方", "对方户名", "对方名称", "商户"),
+                FormatSupport.findColumn(headers, "商品", "说明", "摘要", "用途"));
+    }
+
+    @Override
+    public Bill decode(String[] cols, ColumnMapping m) {
+        double amount = FormatSupport.parseAmount(FormatSupport.column(cols, m.amount()));
+        String type;
+        if (m.type() != ColumnMapping.MISSING) {
+            String rawType = FormatSupport.column(cols, m.type());
+            type = (rawType.contains("收入") || rawType.contains("贷")) ? "收入" : "支出";
+        } else {
+            type = amount < 0 ? "支出" : "收入";
+        }
+        return FormatSupport.newImportedBill(Math.abs(amount),
+                FormatSupport.parseDate(FormatSupport.column(cols, m.time())),
+                type,
+                FormatSupport.column(cols, m.partner()),
+                FormatSupport.column(cols, m.goods()));
+    }
+}
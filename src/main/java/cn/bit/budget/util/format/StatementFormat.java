@@ -0,0 +1,46 @@
+package cn.bit.budget.util.format;
+
+import cn.bit.budget.model.Bill;
+
+/**
+ * 账单来源格式 SPI
+ * <p>
+ * 每种来源（微信、支付宝、银行流水……）实现一个 StatementFormat，
+ * 通过 ServiceLoader 注册后即可被导入流程自动识别，无需改动 BillImportUtil。
+ * </p>
+ */
+public interface StatementFormat {
+
+    /**
+     * 格式名称，用于日志和导入报告
+     */
+    String getName();
+
+    /**
+     * 探测优先级：数值越小越先探测。兜底的通用格式应排在最后
+     */
+    default int getPriority() {
+        return 100;
+    }
+
+    /**
+     * 廉价探测：判断一行文本是否为本格式的表头。
+     * 表头之前的每一行说明文字都会经过这里，实现中只应做少量 contains 判断。
+     */
+    boolean probe(String headerLine);
+
+    /**
+     * 把表头编译为列映射。相同表头的编译结果会被缓存复用
+     */
+    ColumnMapping compile(String[] headers);
+
+    /**
+     * 把一行数据解码为账单
+     *
+     * @return 账单；该行不是账单记录（如汇总行）时返回 null
+     * @throws java.time.DateTimeException     日期无法解析
+     * @throws NumberFormatException           金额无法解析
+     * @throws IndexOutOfBoundsException       行内列数不足
+     */
+    Bill decode(String[] cols, ColumnMapping mapping);
+}
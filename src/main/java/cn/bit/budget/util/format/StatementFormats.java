@@ -0,0 +1,77 @@
+package cn.bit.budget.util.format;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 账单格式注册表
+ * 启动时通过 ServiceLoader 加载全部 StatementFormat，按优先级排序；
+ * 表头的识别与编译结果按表头原文缓存，重复导入同一来源时直接复用。
+ */
+public final class StatementFormats {
+
+    // 不同来源的表头种类很少，缓存上限只是防御性的
+    private static final int MAX_CACHED_HEADERS = 64;
+
+    private static final List<StatementFormat> FORMATS = loadFormats();
+    private static final Map<String, Detected> HEADER_CACHE = new ConcurrentHashMap<>();
+
+    private StatementFormats() {}
+
+    /**
+     * 识别结果：命中的格式及其编译好的列映射
+     */
+    public record Detected(StatementFormat format, ColumnMapping mapping) {}
+
+    private static List<StatementFormat> loadFormats() {
+        List<StatementFormat> formats = new ArrayList<>();
+        for (StatementFormat format : ServiceLoader.load(StatementFormat.class, StatementFormat.class.getClassLoader())) {
+            formats.add(format);
+        }
+        formats.sort(Comparator.comparingInt(StatementFormat::getPriority));
+        return List.copyOf(formats);
+    }
+
+    public static List<StatementFormat> getFormats() {
+        return FORMATS;
+    }
+
+    /**
+     * 判断一行是否为已知格式的表头
+     *
+     * @param headerLine 用于探测的整行文本
+     * @param headers    已切分好的表头列
+     * @return 识别结果；不是表头或列不完整时返回 null
+     */
+    public static Detected detect(String headerLine, String[] headers) {
+        Detected cached = HEADER_CACHE.get(headerLine);
+        if (cached != null) return cached;
+
+        for (StatementFormat format : FORMATS) {
+            if (!format.probe(headerLine)) continue;
+            ColumnMapping mapping = format.compile(headers);
+            if (!mapping.isUsable()) continue;
+
+            Detected detected = new Detected(format, mapping);
+            if (HEADER_CACHE.size() >= MAX_CACHED_HEADERS) HEADER_CACHE.clear();
+            HEADER_CACHE.put(headerLine, detected);
+            return detected;
+        }
+        return null;
+    }
+
+    /**
+     * 廉价预判：只跑各格式的 probe，不切分、不编译
+     */
+    public static boolean looksLikeHeader(String line) {
+        if (HEADER_CACHE.containsKey(line)) return true;
+        for (StatementFormat format : FORMATS) {
+            if (format.probe(line)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,48 @@
+package cn.bit.budget.util.format;
+
+import cn.bit.budget.model.Bill;
+
+/**
+ * 微信支付账单明细
+ * 表头：交易时间,交易类型,交易对方,商品,收/支,金额(元),支付方式,当前状态,交易单号,商户单号,备注
+ */
+public class WeChatStatementFormat implements StatementFormat {
+
+    @Override
+    public String getName() {
+        return "微信支付";
+    }
+
+    @Override
+    public int getPriority() {
+        return 10;
+    }
+
+    @Override
+    public boolean probe(String headerLine) {
+        return headerLine.contains("交易对方") && headerLine.contains("商品")
+                && headerLine.contains("收/支") && headerLine.contains("金额(元)");
+    }
+
+    @Override
+    public ColumnMapping compile(String[] headers) {
+        return new ColumnMapping(
+                FormatSupport.findColumn(headers, "交易时间"),
+                FormatSupport.findColumn(headers, "金额"),
+                FormatSupport.findColumn(headers, "收/支"),
+                FormatSupport.findColumn(headers, "交易对方"),
+                FormatSupport.findColumn(headers, "商品"));
+    }
+
+    @Override
+    public Bill decode(String[] cols, ColumnMapping m) {
+        double amount = FormatSupport.parseAmount(FormatSupport.column(cols, m.amount()));
+        // 微信的“/”（如零钱提现）不计入收入，按支出处理，与旧逻辑保持一致
+        String type = FormatSupport.column(cols, m.type()).contains("收入") ? "收入" : "支出";
+        return FormatSupport.newImportedBill(amount,
+                FormatSupport.parseDate(FormatSupport.column(cols, m.time())),
+                type,
+                FormatSupport.column(cols, m.partner()),
+                FormatSupport.column(cols, m.goods()));
+    }
+}
@@ -7,6 +7,7 @@ module cn.bit.budget.budgetmanager {
     requires javafx.web;
     requires javafx.graphics;
     requires java.net.http;
+    requires jdk.httpserver;
     requires com.google.gson;
     requires java.sql;
     // 允许 JFoenix 反射访问你的 Controller 包，否则 UI 组件没法注入
@@ -21,6 +22,14 @@ module cn.bit.budget.budgetmanager {
     opens cn.bit.budget.budgetmanager to javafx.fxml;
     exports cn.bit.budget.budgetmanager;
 
+    // 账单格式插件：新增来源只需实现 StatementFormat 并在此登记
+    // （实现都在本模块内，uses / provides 不需要导出该包；导出会把未导出的 Bill 暴露在其 API 上）
+    uses cn.bit.budget.util.format.StatementFormat;
+    provides cn.bit.budget.util.format.StatementFormat with
+            cn.bit.budget.util.format.WeChatStatementFormat,
+            cn.bit.budget.util.format.AlipayStatementFormat,
+            cn.bit.budget.util.format.GenericBankCsvFormat;
+
 
 }
 